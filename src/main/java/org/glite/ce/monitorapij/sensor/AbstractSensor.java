@@ -24,10 +24,19 @@
 
 package org.glite.ce.monitorapij.sensor;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
-import org.glite.ce.commonj.utils.BooleanLock;
 import org.glite.ce.monitorapij.resource.Resource;
 import org.glite.ce.monitorapij.resource.types.CEMonResource;
 import org.glite.ce.monitorapij.resource.types.Property;
@@ -44,19 +53,95 @@ public abstract class AbstractSensor
     implements Runnable, Resource, Sensor, MonitorListener {
     private final static Logger logger = Logger.getLogger(AbstractSensor.class.getName());
 
-    private static final Object objMutex = new Object();
+    public static final String EXECUTION_MODE_THREAD = "thread";
 
-    private ArrayList<SensorListener> listeners;
+    public static final String EXECUTION_MODE_SCHEDULED = "scheduled";
+
+    public static final String EXECUTION_MODE_VIRTUAL = "virtual";
+
+    public static final String CHECKPOINT_DIR = "org.glite.ce.monitorapij.sensor.checkpointDir";
+
+    public static final String DISPATCH_MODE_SYNC = "sync";
+
+    public static final String DISPATCH_MODE_ASYNC = "async";
+
+    public static final int DEFAULT_DISPATCH_QUEUE_SIZE = 1000;
+
+    public static final int DEFAULT_EXECUTE_STUCK_LIMIT = 0;
+
+    private SensorListenerRegistry listeners;
+
+    private volatile SensorEventBus eventBus = null;
+
+    private SensorEventPool eventPool = null;
+
+    private volatile SensorEventSequence eventSequence = SensorEventSequence.getGlobal();
 
     private ArrayList<SensorOutputDataFormat> sensorOutputDataFormat;
 
     private SensorOutputDataFormat defaultFormat;
 
-    private BooleanLock lock;
+    /*
+     * The run() loop waits on a java.util.concurrent lock rather than on an
+     * object monitor: a virtual thread blocked in Object.wait() keeps its
+     * carrier thread pinned, while one parked on a Condition releases it.
+     */
+    private final ReentrantLock stateLock = new ReentrantLock();
+
+    private final Condition stateChanged = stateLock.newCondition();
+
+    private boolean isSuspended = false;
+
+    private boolean isLoopRunning = false;
+
+    private boolean wakeupRequested = false;
+
+    private Thread executingThread = null;
+
+    private long destroyRequestTime = 0;
+
+    private long stopDuration = -1;
 
     private long executionDelay = 0;
 
-    private Thread thisThread;
+    private long minExecutionDelay = 0;
+
+    private long maxExecutionDelay = 0;
+
+    private int quietCyclesBeforeBackoff = 3;
+
+    private boolean isAdaptiveDelay = false;
+
+    private volatile long currentExecutionDelay = 0;
+
+    private int quietCycles = 0;
+
+    /*
+     * events can be fired by any thread of a plugin
+     */
+    private final AtomicLong firedEvents = new AtomicLong(0);
+
+    private static final Random jitterGenerator = new Random();
+
+    private long initialDelay = 0;
+
+    private volatile long lastExecutionTime = 0;
+
+    private long executeTimeout = 0;
+
+    private int executeStuckLimit = DEFAULT_EXECUTE_STUCK_LIMIT;
+
+    private volatile long overrunCount = 0;
+
+    private volatile long skippedCycles = 0;
+
+    private boolean interruptedByWatchdog = false;
+
+    private SensorCheckpoint checkpoint = null;
+
+    private static SensorScheduler defaultScheduler = null;
+
+    private SensorScheduler scheduler = null;
 
     private String scope = Sensor.HIGH;
 
@@ -66,7 +151,7 @@ public abstract class AbstractSensor
 
     private boolean isInitialized = false;
 
-    private boolean isDestroySensor = false;
+    private volatile boolean isDestroySensor = false;
 
     /*
      * 
@@ -89,12 +174,8 @@ public abstract class AbstractSensor
     public AbstractSensor(String name, String type) {
         super(name, type);
 
-        lock = new BooleanLock();
         sensorOutputDataFormat = new ArrayList<SensorOutputDataFormat>(0);
-        listeners = new ArrayList<SensorListener>(0);
-
-        thisThread = new Thread(this);
-        thisThread.setName(getName());
+        listeners = new SensorListenerRegistry(this);
     }
 
     /**
@@ -122,23 +203,377 @@ public abstract class AbstractSensor
         }
     }
 
+    /**
+     * Add a <code>SensorListener</code> to the sensor, delivering the events
+     * to it asynchronously through a bounded queue handled with the specified
+     * backpressure policy, whatever the dispatch mode of the sensor.
+     * 
+     * @param l
+     *            The <code>SensorListener</code> to be added.
+     * @param policy
+     *            The <code>SensorDeliveryPolicy</code> applied when the queue
+     *            of the listener is full.
+     */
+    public void addSensorListener(SensorListener l, SensorDeliveryPolicy policy) {
+        if (l != null) {
+            listeners.add(l, policy, null);
+        }
+    }
+
+    /**
+     * Add a <code>SensorListener</code> to the sensor, notifying it only of
+     * the events accepted by the specified filter. The filters are compiled
+     * into a dispatch table indexed by event name, so the listeners not
+     * interested in an event are not even invoked.
+     * 
+     * @param l
+     *            The <code>SensorListener</code> to be added.
+     * @param filter
+     *            The <code>EventFilter</code> selecting the events, null for
+     *            all of them.
+     */
+    public void addSensorListener(SensorListener l, EventFilter filter) {
+        if (l != null) {
+            listeners.add(l, null, filter);
+        }
+    }
+
+    /**
+     * Add a <code>SensorListener</code> to the sensor, with both an
+     * <code>EventFilter</code> and a <code>SensorDeliveryPolicy</code>.
+     * 
+     * @param l
+     *            The <code>SensorListener</code> to be added.
+     * @param filter
+     *            The <code>EventFilter</code> selecting the events, null for
+     *            all of them.
+     * @param policy
+     *            The <code>SensorDeliveryPolicy</code> applied when the queue
+     *            of the listener is full.
+     * @see #addSensorListener(SensorListener, SensorDeliveryPolicy)
+     */
+    public void addSensorListener(SensorListener l, EventFilter filter, SensorDeliveryPolicy policy) {
+        if (l != null) {
+            listeners.add(l, policy, filter);
+        }
+    }
+
     /**
      * 
      * @see org.glite.ce.monitorapij.sensor.Sensor#destroySensor()
      */
     public void destroySensor() {
         logger.debug("destroying sensor " + getName() + "...");
-        isDestroySensor = true;
-        lock.setValue(false);
+        stateLock.lock();
+        try {
+            if (!isDestroySensor) {
+                destroyRequestTime = System.nanoTime();
+            }
+            isDestroySensor = true;
+            isSuspended = false;
+            stateChanged.signalAll();
+            checkTermination();
+        } finally {
+            stateLock.unlock();
+        }
 
-        synchronized (objMutex) {
-            objMutex.notify();
+        if (scheduler != null) {
+            scheduler.cancel(this);
         }
 
         listeners.clear();
         logger.debug("destroying sensor " + getName() + "... done!");
     }
 
+    /**
+     * Invoke the execute() method once, handling the
+     * <code>SensorException</code> it may throw: the sensor is destroyed if
+     * the exception is an ERROR. This is the unit of work scheduled by the
+     * <code>SensorScheduler</code>.
+     */
+    public void executeCycle() {
+        stateLock.lock();
+        try {
+            executingThread = Thread.currentThread();
+        } finally {
+            stateLock.unlock();
+        }
+
+        long eventsBefore = getFiredEventCount();
+        lastExecutionTime = System.currentTimeMillis();
+
+        ScheduledFuture<?> watch = null;
+        if (executeTimeout > 0) {
+            watch = SensorWatchdog.getInstance().watch(this, executeTimeout);
+        }
+
+        try {
+            logger.debug("sensor " + getName() + ": invoking execute()");
+            execute();
+            logger.debug("sensor " + getName() + ": execute() invoked!");
+
+            if (isAdaptiveDelay) {
+                adaptExecutionDelay(getFiredEventCount() != eventsBefore);
+            }
+        } catch (SensorException se) {
+            logger.error(se.toString(), se);
+
+            if (se.getExceptionID() == SensorException.ERROR) {
+                destroySensor();
+                logger.error("sensor " + getName() + " destroyed \"" + getName()
+                        + "\" sensor because of previous errors");
+            }
+        } finally {
+            if (watch != null) {
+                watch.cancel(false);
+            }
+
+            long period = currentExecutionDelay;
+            if (period > 0) {
+                long elapsed = System.currentTimeMillis() - lastExecutionTime;
+                if (elapsed >= period) {
+                    skippedCycles += elapsed / period;
+                }
+            }
+
+            stateLock.lock();
+            try {
+                executingThread = null;
+                if (interruptedByWatchdog) {
+                    // do not leak the watchdog interrupt into the next wait
+                    Thread.interrupted();
+                    interruptedByWatchdog = false;
+                }
+                checkTermination();
+            } finally {
+                stateLock.unlock();
+            }
+        }
+    }
+
+    /*
+     * Record the current thread as the one executing this sensor outside of
+     * executeCycle(), as done by the DerivedSensors. Return false if the
+     * sensor has been destroyed.
+     */
+    boolean enterExecution() {
+        stateLock.lock();
+        try {
+            if (isDestroySensor) {
+                return false;
+            }
+            executingThread = Thread.currentThread();
+            return true;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    void exitExecution() {
+        stateLock.lock();
+        try {
+            executingThread = null;
+            checkTermination();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Invoked by the <code>SensorWatchdog</code> when the current execution
+     * exceeds the executeTimeout: the overrun is counted and the thread
+     * running execute() is interrupted.
+     * 
+     * @param warning
+     *            A <code>SensorException.WARNING</code> describing the
+     *            overrun.
+     */
+    protected void executionOverrun(SensorException warning) {
+        overrunCount++;
+        logger.warn(warning.getMessage());
+
+        stateLock.lock();
+        try {
+            if (executingThread != null) {
+                interruptedByWatchdog = true;
+                executingThread.interrupt();
+            }
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Invoked by the <code>SensorWatchdog</code> when the current execution
+     * has not completed after executeStuckLimit further timeout intervals:
+     * the execution is abandoned and the sensor destroyed, so it is not
+     * rescheduled and the scheduler stops counting its thread. Nothing
+     * restarts the sensor afterwards, hence the limit is disabled unless the
+     * executeStuckLimit property is set.
+     * 
+     * @param error
+     *            A <code>SensorException.ERROR</code> describing the stuck
+     *            execution.
+     */
+    protected void executionStuck(SensorException error) {
+        logger.error(error.getMessage());
+        destroySensor();
+        logger.error("sensor " + getName() + " destroyed because its execution is stuck");
+    }
+
+    /**
+     * Get the number of consecutive timeout intervals an overrun execution
+     * may last before being abandoned.
+     * 
+     * @return The limit, zero (the default) if the execution is never
+     *         abandoned.
+     */
+    public int getExecuteStuckLimit() {
+        return executeStuckLimit;
+    }
+
+    /**
+     * Get the number of executions which exceeded the executeTimeout.
+     * 
+     * @return The number of overruns.
+     */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * Get the number of execution periods entirely spent inside a single
+     * execution, i.e. the cycles lost because execute() took longer than the
+     * current execution delay.
+     * 
+     * @return The number of skipped cycles.
+     */
+    public long getSkippedCycles() {
+        return skippedCycles;
+    }
+
+    /*
+     * Halve the delay as soon as a cycle produces events, double it after
+     * quietCyclesBeforeBackoff consecutive cycles without events.
+     */
+    private void adaptExecutionDelay(boolean changed) {
+        long delay = currentExecutionDelay;
+
+        if (changed) {
+            quietCycles = 0;
+            delay = Math.max(minExecutionDelay, delay / 2);
+        } else if (++quietCycles >= quietCyclesBeforeBackoff) {
+            quietCycles = 0;
+            delay = Math.min(maxExecutionDelay, delay * 2);
+        }
+
+        if (delay != currentExecutionDelay) {
+            logger.debug("sensor " + getName() + ": execution delay changed to " + delay + " ms");
+            currentExecutionDelay = delay;
+        }
+    }
+
+    /**
+     * Request the next execution to start as soon as possible, without
+     * waiting for the end of the current execution delay. If the sensor is
+     * running execute(), the next execution starts immediately after it. The
+     * request is ignored while the sensor is suspended.
+     */
+    public void wakeup() {
+        stateLock.lock();
+        try {
+            if (isSuspended || isDestroySensor) {
+                return;
+            }
+            wakeupRequested = true;
+            stateChanged.signalAll();
+        } finally {
+            stateLock.unlock();
+        }
+
+        if (scheduler != null) {
+            scheduler.wakeup(this);
+        }
+    }
+
+    /**
+     * Wait until the sensor has been destroyed and its last execution, if
+     * any, has completed.
+     * 
+     * @param timeout
+     *            The maximum time to wait in milliseconds.
+     * @return True if the sensor has terminated, false if the timeout elapsed
+     *         before.
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout)
+        throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        stateLock.lock();
+        try {
+            while (stopDuration < 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = stateChanged.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Get the time taken by the sensor to terminate, measured from the
+     * destroySensor() request to the end of its last execution.
+     * 
+     * @return The stop time in milliseconds, or -1 if the sensor has not
+     *         terminated yet.
+     */
+    public long getStopDuration() {
+        stateLock.lock();
+        try {
+            return stopDuration;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Interrupt the thread currently running the execute() method, if any.
+     * It is meant to unblock a sensor that does not terminate in time after
+     * destroySensor(); the effect depends on how execute() reacts to the
+     * interruption.
+     */
+    public void interruptExecution() {
+        stateLock.lock();
+        try {
+            if (executingThread != null) {
+                logger.warn("interrupting execution of sensor " + getName());
+                executingThread.interrupt();
+            }
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    public boolean isTerminated() {
+        return getStopDuration() >= 0;
+    }
+
+    /*
+     * Must be invoked holding stateLock.
+     */
+    private void checkTermination() {
+        if (isDestroySensor && stopDuration < 0 && executingThread == null && !isLoopRunning) {
+            stopDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - destroyRequestTime);
+            stateChanged.signalAll();
+            logger.debug("sensor " + getName() + " terminated in " + stopDuration + " ms");
+        }
+    }
+
     /**
      * Specify the things to do when a <code>MonitorEvent</code> occurs.
      * 
@@ -150,7 +585,10 @@ public abstract class AbstractSensor
     /**
      * Notify all listeners that have registered interest for notification on
      * this event type. The event instance is created using the
-     * <code>event</code> parameter.
+     * <code>event</code> parameter. The event is stamped with the next
+     * number of the <code>SensorEventSequence</code> of the sensor, unless
+     * it already has one. An event acquired from a
+     * <code>SensorEventPool</code> is released after the notification.
      * 
      * @param event
      *            The <code>SensorEvent</code> object.
@@ -160,17 +598,251 @@ public abstract class AbstractSensor
             return;
         }
 
+        firedEvents.incrementAndGet();
+        eventSequence.stamp(event);
+
         // Process the listeners first to last, notifying
         // those that are interested in this event
-        for (int i = 0; i < listeners.size(); i++) {
-            Object listener = listeners.get(i);
+        SensorListenerRegistry.Route route = listeners.getDispatchTable().getRoute(event.getName());
+        SensorListener[] targets = route.targets;
+        EventFilter[] checks = route.checks;
+
+        for (int i = 0; i < targets.length; i++) {
+            if (checks[i] == null || checks[i].acceptIgnoringName(event)) {
+                targets[i].doOnSensorEvent(event);
+            }
+        }
+
+        SensorEventBus bus = eventBus;
+        if (bus != null) {
+            bus.publish(event);
+        }
+
+        SensorEventPool pool = event.getPool();
+        if (pool != null) {
+            pool.release(event);
+        }
+    }
+
+    /**
+     * Notify all listeners of many events at once. The
+     * <code>BatchSensorListener</code>s receive the whole list in a single
+     * call, the other listeners one event at a time.
+     * 
+     * @param events
+     *            The <code>SensorEvent</code>s, in the order they occurred.
+     */
+    protected void fireSensorEvents(List<SensorEvent> events) {
+        if (events == null || events.isEmpty()) {
+            return;
+        }
+
+        firedEvents.addAndGet(events.size());
+
+        SensorEventSequence sequence = eventSequence;
+        for (int j = 0; j < events.size(); j++) {
+            sequence.stamp(events.get(j));
+        }
+
+        List<SensorEvent> batch = Collections.unmodifiableList(events);
+        SensorListenerRegistry.DispatchTable table = listeners.getDispatchTable();
+        SensorListener[] targets = table.listeners;
+
+        for (int i = 0; i < targets.length; i++) {
+            List<SensorEvent> accepted = batch;
+
+            if (table.filters[i] != null) {
+                accepted = new ArrayList<SensorEvent>(events.size());
+                for (int j = 0; j < events.size(); j++) {
+                    if (table.filters[i].accept(events.get(j))) {
+                        accepted.add(events.get(j));
+                    }
+                }
+
+                if (accepted.isEmpty()) {
+                    continue;
+                }
+            }
+
+            if (targets[i] instanceof BatchSensorListener) {
+                ((BatchSensorListener) targets[i]).doOnSensorEvents(accepted);
+            } else {
+                for (int j = 0; j < accepted.size(); j++) {
+                    targets[i].doOnSensorEvent(accepted.get(j));
+                }
+            }
+        }
+
+        SensorEventBus bus = eventBus;
+        if (bus != null) {
+            for (int j = 0; j < events.size(); j++) {
+                bus.publish(events.get(j));
+            }
+        }
+
+        for (int j = 0; j < events.size(); j++) {
+            SensorEventPool pool = events.get(j).getPool();
+            if (pool != null) {
+                pool.release(events.get(j));
+            }
+        }
+    }
+
+    /**
+     * Get a new event having this sensor as source, taken from the
+     * <code>SensorEventPool</code> of the sensor if any.
+     * 
+     * @param eventID
+     *            An integer identifying the event.
+     * @return The event.
+     * @see #setSensorEventPool(SensorEventPool)
+     */
+    protected SensorEvent createSensorEvent(int eventID) {
+        SensorEventPool pool = eventPool;
 
-            if (listener instanceof SensorListener) {
-                ((SensorListener) listener).doOnSensorEvent(event);
+        if (pool == null) {
+            return new SensorEvent(this, eventID);
+        }
+
+        return pool.acquire(this, eventID);
+    }
+
+    /**
+     * Set the pool from which <code>createSensorEvent()</code> takes the
+     * events. The listeners of a sensor using a pool must follow the
+     * ownership rules described in <code>SensorEventPool</code>.
+     * 
+     * @param pool
+     *            The <code>SensorEventPool</code>, null for no pool.
+     */
+    public void setSensorEventPool(SensorEventPool pool) {
+        eventPool = pool;
+    }
+
+    public SensorEventPool getSensorEventPool() {
+        return eventPool;
+    }
+
+    /**
+     * Set the sequence stamping the events fired by this sensor, by default
+     * the global one.
+     * 
+     * @param sequence
+     *            The <code>SensorEventSequence</code>.
+     */
+    public void setSensorEventSequence(SensorEventSequence sequence) {
+        if (sequence == null) {
+            throw new IllegalArgumentException("sequence must not be null");
+        }
+        eventSequence = sequence;
+    }
+
+    public SensorEventSequence getSensorEventSequence() {
+        return eventSequence;
+    }
+
+    /**
+     * Set the <code>SensorEventBus</code> on which the events fired by this
+     * sensor are published, besides being delivered to its listeners. Many
+     * sensors may share the same bus. When its ring buffer is full the sensor
+     * waits at most the publish timeout of the bus, then the events are
+     * dropped (see <code>SensorEventBus.getDroppedEventCount()</code>).
+     * 
+     * @param bus
+     *            The <code>SensorEventBus</code>, null for no bus.
+     */
+    public void setSensorEventBus(SensorEventBus bus) {
+        eventBus = bus;
+    }
+
+    public SensorEventBus getSensorEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * Get the checkpoint of this sensor, loading it on first use. The
+     * checkpoint is persisted in the file named as the sensor, with extension
+     * ".checkpoint", in the directory specified by the
+     * <code>Property</code> checkpointDir or, if not defined, by the system
+     * property <code>org.glite.ce.monitorapij.sensor.checkpointDir</code>.
+     * If neither is defined the checkpoint is kept in memory only.
+     * 
+     * @return The <code>SensorCheckpoint</code> of this sensor.
+     * @throws SensorException
+     *             if the persisted checkpoint cannot be read.
+     */
+    protected synchronized SensorCheckpoint getSensorCheckpoint()
+        throws SensorException {
+        if (checkpoint == null) {
+            String dir = System.getProperty(CHECKPOINT_DIR);
+
+            Property property = getProperty("checkpointDir");
+            if (property != null && property.getValue() != null) {
+                dir = property.getValue();
+            }
+
+            File file = null;
+            if (dir != null) {
+                file = new File(dir, getName().replaceAll("[^A-Za-z0-9._-]", "_") + ".checkpoint");
+            } else {
+                logger.warn("sensor " + getName() + ": checkpointDir not defined, the checkpoint is not persisted");
             }
+
+            try {
+                checkpoint = new SensorCheckpoint(file);
+            } catch (IOException ex) {
+                throw new SensorException("cannot load the checkpoint of sensor " + getName() + ": "
+                        + ex.getMessage());
+            }
+        }
+
+        return checkpoint;
+    }
+
+    /**
+     * Get the cursor up to which the data source has already been processed,
+     * as committed by the last invocation of commitCheckpoint(), possibly
+     * before a restart.
+     * 
+     * @return The cursor, or null if none has been committed yet.
+     * @throws SensorException
+     *             if the persisted checkpoint cannot be read.
+     */
+    protected String getCheckpoint()
+        throws SensorException {
+        return getSensorCheckpoint().getCursor();
+    }
+
+    /**
+     * Atomically persist the cursor up to which the data source has been
+     * processed. It should be invoked after the events related to the data
+     * up to the cursor have been fired, so that a restart may re-emit some
+     * events but never lose them.
+     * 
+     * @param cursor
+     *            The new cursor.
+     * @throws SensorException
+     *             a WARNING if the cursor cannot be persisted.
+     */
+    protected void commitCheckpoint(String cursor)
+        throws SensorException {
+        try {
+            getSensorCheckpoint().commit(cursor);
+        } catch (IOException ex) {
+            throw new SensorException(SensorException.WARNING, "cannot persist the checkpoint of sensor "
+                    + getName() + ": " + ex.getMessage());
         }
     }
 
+    /**
+     * Get the number of events fired by this sensor since its creation.
+     * 
+     * @return The number of fired events.
+     */
+    public long getFiredEventCount() {
+        return firedEvents.get();
+    }
+
     /**
      * Get the default format if previously set or the first saved supported
      * format.
@@ -224,10 +896,178 @@ public abstract class AbstractSensor
         return formats;
     }
 
+    /**
+     * Get the time interval in milliseconds between the end of an execution
+     * and the start of the next one.
+     * 
+     * @return The execution delay in milliseconds.
+     */
+    public long getExecutionDelay() {
+        return executionDelay;
+    }
+
+    /**
+     * Get the execution delay in milliseconds used when the executionDelay
+     * property is not defined. Subclasses may override it.
+     * 
+     * @return The default execution delay (60 seconds).
+     */
+    protected long getDefaultExecutionDelay() {
+        return 60000;
+    }
+
+    /**
+     * Get the delay in milliseconds before the next execution. It is equal
+     * to the executionDelay unless the adaptive mode has been enabled by the
+     * minExecutionDelay and/or maxExecutionDelay properties: in that case the
+     * delay shrinks toward the minimum while the execute() method keeps
+     * firing events and grows toward the maximum after
+     * quietCyclesBeforeBackoff (default 3) executions without events.
+     * 
+     * @return The delay in milliseconds before the next execution.
+     */
+    public long getCurrentExecutionDelay() {
+        return currentExecutionDelay;
+    }
+
+    /**
+     * Get the delay in milliseconds of the first execution after
+     * startSensor(). It is the sum of the startDelay property and of a random
+     * value between 0 and the startJitter property (both in seconds), so that
+     * sensors with the same executionDelay do not run in lockstep.
+     * 
+     * @return The delay of the first execution in milliseconds.
+     */
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * Get the time the last execution started at.
+     * 
+     * @return The start time of the last execution in milliseconds since the
+     *         epoch, or 0 if the sensor has never been executed.
+     */
+    public long getLastExecutionTime() {
+        return lastExecutionTime;
+    }
+
+    /**
+     * Get the <code>SensorScheduler</code> used by default by the sensors
+     * which do not specify their own. Unless changed with
+     * setDefaultSensorScheduler(), this is a <code>SharedSensorScheduler</code>
+     * created on first use.
+     * 
+     * @return The default <code>SensorScheduler</code>.
+     */
+    public static synchronized SensorScheduler getDefaultSensorScheduler() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new SharedSensorScheduler();
+        }
+
+        return defaultScheduler;
+    }
+
+    /**
+     * Set the <code>SensorScheduler</code> used by default by the sensors
+     * which do not specify their own.
+     * 
+     * @param scheduler
+     *            The default <code>SensorScheduler</code>.
+     */
+    public static synchronized void setDefaultSensorScheduler(SensorScheduler scheduler) {
+        defaultScheduler = scheduler;
+    }
+
+    /**
+     * Get the <code>SensorScheduler</code> driving this sensor.
+     * 
+     * @return The <code>SensorScheduler</code> or null if the sensor has not
+     *         been started yet and no scheduler has been set.
+     */
+    public SensorScheduler getSensorScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Set the <code>SensorScheduler</code> driving this sensor. It must be
+     * invoked before startSensor().
+     * 
+     * @param scheduler
+     *            The <code>SensorScheduler</code>.
+     */
+    public void setSensorScheduler(SensorScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
     public String getScope() {
         return scope;
     }
 
+    /**
+     * Enable or disable the asynchronous delivery of the events. When enabled
+     * every listener gets a bounded queue, drained in order by the threads
+     * shared by all the sensors, so firing an event just enqueues it and a
+     * slow listener delays neither the sensor nor the other listeners; what
+     * happens when a queue is full is decided by the default
+     * <code>SensorDeliveryPolicy</code>. The same is obtained by setting the
+     * sensor property <code>dispatchMode</code> to <code>async</code>, and
+     * optionally <code>dispatchQueueSize</code> (default 1000).
+     * 
+     * @param size
+     *            The capacity of each listener queue, 0 for delivering the
+     *            events synchronously on the thread firing them.
+     */
+    public void setDispatchQueueSize(int size) {
+        listeners.configure(size, listeners.getDefaultPolicy());
+        logger.debug("sensor " + getName() + ": dispatch queue size set to " + size);
+    }
+
+    public int getDispatchQueueSize() {
+        return listeners.getQueueSize();
+    }
+
+    /**
+     * Set the backpressure policy of the listeners added without their own
+     * one, applied when the dispatch is asynchronous. It can also be set
+     * through the sensor properties <code>dispatchPolicy</code>
+     * (<code>block</code>, <code>dropNewest</code>, <code>dropOldest</code>
+     * or <code>coalesce</code>), <code>dispatchBlockTimeout</code> (in
+     * milliseconds, default 1000) and <code>dispatchCoalesceKey</code> (the
+     * event parameter holding the key, the event name by default).
+     * 
+     * @param policy
+     *            The default <code>SensorDeliveryPolicy</code>.
+     */
+    public void setDefaultDeliveryPolicy(SensorDeliveryPolicy policy) {
+        listeners.configure(listeners.getQueueSize(), policy);
+        logger.debug("sensor " + getName() + ": delivery policy set to " + policy);
+    }
+
+    public SensorDeliveryPolicy getDefaultDeliveryPolicy() {
+        return listeners.getDefaultPolicy();
+    }
+
+    /**
+     * Get the number of events replaced in the delivery queues by a later
+     * event having the same key.
+     * 
+     * @return The number of coalesced events.
+     */
+    public long getCoalescedEventCount() {
+        return listeners.getCoalescedEventCount();
+    }
+
+    /**
+     * Get the number of events not delivered because the queue of their
+     * listener was full.
+     * 
+     * @return The number of dropped events.
+     */
+    public long getDroppedEventCount() {
+        return listeners.getDroppedEventCount();
+    }
+
     /**
      * Get an array of all the <code>SensorListener</code>s added to this
      * AbstractSensor with addSensorListener().
@@ -236,9 +1076,7 @@ public abstract class AbstractSensor
      *         if no listeners have been added.
      */
     public SensorListener[] getSensorListeners() {
-        SensorListener[] sensorListener = new SensorListener[listeners.size()];
-
-        return (SensorListener[]) listeners.toArray(sensorListener);
+        return listeners.getListeners();
     }
 
     /**
@@ -278,6 +1116,24 @@ public abstract class AbstractSensor
         }
     }
 
+    public boolean isDestroyed() {
+        return isDestroySensor;
+    }
+
+    /**
+     * Check whether the sensor has been suspended and not resumed since.
+     * 
+     * @return True if the sensor is suspended.
+     */
+    public boolean isSuspended() {
+        stateLock.lock();
+        try {
+            return isSuspended;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
     public boolean isEventOverwriteModeActive() {
         return isEventOverwriteModeActive;
     }
@@ -362,19 +1218,60 @@ public abstract class AbstractSensor
      * @see org.glite.ce.monitorapij.sensor.Sensor#resumeSensor()
      */
     public synchronized void resumeSensor() {
-        lock.setValue(false);
+        stateLock.lock();
+        try {
+            isSuspended = false;
+            stateChanged.signalAll();
+        } finally {
+            stateLock.unlock();
+        }
+
+        if (scheduler != null) {
+            scheduler.resume(this);
+        }
     }
 
     /**
      * Launch the execute() method of Sensor thread each executionDelay time
-     * interval.
+     * interval. This loop is used only when the sensor runs in the
+     * thread-per-sensor compatibility mode (see
+     * <code>ThreadSensorScheduler</code>).
      * 
      * @see java.lang.Runnable#run()
      */
     public void run() {
+        stateLock.lock();
+        try {
+            isLoopRunning = true;
+        } finally {
+            stateLock.unlock();
+        }
+
+        try {
+            loop();
+        } finally {
+            stateLock.lock();
+            try {
+                isLoopRunning = false;
+                checkTermination();
+            } finally {
+                stateLock.unlock();
+            }
+        }
+    }
+
+    private void loop() {
+        if (initialDelay > 0) {
+            try {
+                awaitDelay(initialDelay);
+            } catch (InterruptedException e) {
+                logger.error("InterruptedException: " + e.getMessage());
+            }
+        }
+
         while (!isDestroySensor) {
             try {
-                lock.waitUntilFalse(0L);
+                awaitResumed();
             } catch (InterruptedException ex) {
                 logger.error(ex.toString());
             }
@@ -385,31 +1282,48 @@ public abstract class AbstractSensor
             }
 
             try {
-                logger.debug("sensor " + getName() + ": invoking execute()");
-                execute();
-                logger.debug("sensor " + getName() + ": execute() invoked!");
-            } catch (SensorException se) {
-                logger.error(se.toString(), se);
-
-                if (se.getExceptionID() == SensorException.ERROR) {
-                    destroySensor();
-                    logger.error("sensor " + getName() + " destroyed \"" + getName()
-                            + "\" sensor because of previous errors");
-                }
+                executeCycle();
             } finally {
-                synchronized (objMutex) {
-                    if (executionDelay > 0 && !isDestroySensor) {
-                        try {
-                            objMutex.wait(executionDelay);
-                        } catch (InterruptedException e) {
-                            logger.error("InterruptedException: " + e.getMessage());
-                        }
+                long delay = currentExecutionDelay;
+
+                if (delay > 0 && !isDestroySensor) {
+                    try {
+                        awaitDelay(delay);
+                    } catch (InterruptedException e) {
+                        logger.error("InterruptedException: " + e.getMessage());
                     }
                 }
             }
         }
     }
 
+    private void awaitResumed()
+        throws InterruptedException {
+        stateLock.lock();
+        try {
+            while (isSuspended && !isDestroySensor) {
+                stateChanged.await();
+            }
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private void awaitDelay(long delay)
+        throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(delay);
+
+        stateLock.lock();
+        try {
+            while (nanos > 0 && !isDestroySensor && !wakeupRequested) {
+                nanos = stateChanged.awaitNanos(nanos);
+            }
+            wakeupRequested = false;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
     /**
      * Set the default format.
      * 
@@ -438,9 +1352,15 @@ public abstract class AbstractSensor
     }
 
     /**
-     * Start the execution of the Sensor intended as a Thread if the
-     * <code>Property</code> executionDelay has been defined. Otherwise log a
-     * warning "executionDelay property not found!".
+     * Start the execution of the Sensor every executionDelay seconds, as
+     * specified by the homonymous <code>Property</code> (default 60), after
+     * the initial delay defined by the startDelay and startJitter properties.
+     * The sensor is handed to the <code>SensorScheduler</code> set with
+     * setSensorScheduler() or, if none, to the default shared scheduler; the
+     * thread-per-sensor compatibility mode is selected by setting the
+     * <code>Property</code> executionMode to "thread", while "virtual" runs
+     * the same loop on a virtual thread (Java 21 or later, platform thread
+     * otherwise).
      * 
      * @see org.glite.ce.monitorapij.sensor.Sensor#startSensor()
      */
@@ -456,12 +1376,138 @@ public abstract class AbstractSensor
             }
 
         } else {
-            logger.warn("ExecutionDelay property not found, using default 60");
-            executionDelay = 60000;
+            executionDelay = getDefaultExecutionDelay();
+            logger.warn("ExecutionDelay property not found, using default " + (executionDelay / 1000));
+        }
+
+        minExecutionDelay = getDelayProperty("minExecutionDelay");
+        maxExecutionDelay = getDelayProperty("maxExecutionDelay");
+        isAdaptiveDelay = executionDelay > 0 && (minExecutionDelay >= 0 || maxExecutionDelay >= 0);
+
+        if (isAdaptiveDelay) {
+            /*
+             * the executionDelay must lie in [min, max]: a missing bound
+             * defaults to it, while a zero minimum would turn the sensor
+             * into a busy loop
+             */
+            if (minExecutionDelay < 0 || minExecutionDelay > executionDelay) {
+                minExecutionDelay = executionDelay;
+            }
+            if (minExecutionDelay == 0) {
+                minExecutionDelay = Math.min(1000, executionDelay);
+            }
+            if (maxExecutionDelay < executionDelay) {
+                maxExecutionDelay = executionDelay;
+            }
+
+            property = getProperty("quietCyclesBeforeBackoff");
+            if (property != null && property.getValue() != null) {
+                quietCyclesBeforeBackoff = Math.max(1, Integer.parseInt(property.getValue()));
+            }
+
+            logger.debug("sensor " + getName() + ": adaptive execution delay in [" + minExecutionDelay + ", "
+                    + maxExecutionDelay + "] ms");
         }
 
-        thisThread.start();
+        currentExecutionDelay = executionDelay;
+
+        executeTimeout = Math.max(getDelayProperty("executeTimeout"), 0);
+        if (executeTimeout > 0) {
+            logger.debug("sensor " + getName() + ": executeTimeout is " + executeTimeout + " ms");
+
+            property = getProperty("executeStuckLimit");
+            if (property != null && property.getValue() != null) {
+                executeStuckLimit = Math.max(0, Integer.parseInt(property.getValue()));
+            }
+        }
+
+        long startDelay = Math.max(getDelayProperty("startDelay"), 0);
+        long startJitter = Math.max(getDelayProperty("startJitter"), 0);
+
+        initialDelay = startDelay;
+        if (startJitter > 0) {
+            initialDelay += (long) (jitterGenerator.nextDouble() * startJitter);
+        }
+
+        if (initialDelay > 0) {
+            logger.debug("sensor " + getName() + ": first execution delayed by " + initialDelay + " ms");
+        }
+
+        configureDispatch();
+
+        if (scheduler == null) {
+            property = getProperty("executionMode");
+
+            if (property != null && EXECUTION_MODE_THREAD.equalsIgnoreCase(property.getValue())) {
+                scheduler = ThreadSensorScheduler.INSTANCE;
+            } else if (property != null && EXECUTION_MODE_VIRTUAL.equalsIgnoreCase(property.getValue())) {
+                scheduler = ThreadSensorScheduler.VIRTUAL_INSTANCE;
+            } else {
+                scheduler = getDefaultSensorScheduler();
+            }
+        }
 
+        logger.debug("starting sensor " + getName() + " with " + scheduler.getClass().getName());
+
+        /*
+         * serialized with suspendSensor() and resumeSensor(), so the
+         * scheduler sees a consistent suspension state
+         */
+        synchronized (this) {
+            scheduler.schedule(this);
+        }
+    }
+
+    /*
+     * Set up the delivery of the events to the listeners as specified by the
+     * dispatch properties; invoked on start, also by the sensors which are
+     * not scheduled.
+     */
+    void configureDispatch() {
+        Property property = getProperty("dispatchMode");
+        if (property != null && DISPATCH_MODE_ASYNC.equalsIgnoreCase(property.getValue())) {
+            int queueSize = DEFAULT_DISPATCH_QUEUE_SIZE;
+
+            property = getProperty("dispatchQueueSize");
+            if (property != null && property.getValue() != null) {
+                queueSize = Math.max(1, Integer.parseInt(property.getValue()));
+            }
+
+            long blockTimeout = SensorDeliveryPolicy.DEFAULT_BLOCK_TIMEOUT;
+            String coalesceKey = null;
+
+            property = getProperty("dispatchBlockTimeout");
+            if (property != null && property.getValue() != null) {
+                blockTimeout = Long.parseLong(property.getValue());
+            }
+
+            property = getProperty("dispatchCoalesceKey");
+            if (property != null) {
+                coalesceKey = property.getValue();
+            }
+
+            property = getProperty("dispatchPolicy");
+            SensorDeliveryPolicy policy = SensorDeliveryPolicy.valueOf(property == null ? null : property
+                    .getValue(), blockTimeout, coalesceKey);
+
+            listeners.configure(queueSize, policy);
+            logger.debug("sensor " + getName() + ": asynchronous dispatch, queue size " + queueSize
+                    + ", policy " + policy);
+        }
+    }
+
+    /*
+     * Return the value in milliseconds of a property expressed in seconds,
+     * or -1 if the property is not defined.
+     */
+    private long getDelayProperty(String name) {
+        Property property = getProperty(name);
+
+        if (property == null || property.getValue() == null) {
+            return -1;
+        }
+
+        return Long.parseLong(property.getValue()) * 1000;
     }
 
     /**
@@ -470,6 +1516,15 @@ public abstract class AbstractSensor
      * @see org.glite.ce.monitorapij.sensor.Sensor#suspendSensor()
      */
     public synchronized void suspendSensor() {
-        lock.setValue(true);
+        stateLock.lock();
+        try {
+            isSuspended = true;
+        } finally {
+            stateLock.unlock();
+        }
+
+        if (scheduler != null) {
+            scheduler.suspend(this);
+        }
     }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.List;
+
+/**
+ * <code>SensorListener</code> able to receive many events in a single call,
+ * so as to amortize the per-notification costs (locks, I/O flushes, message
+ * envelopes) over the whole batch. The events fired one at a time are still
+ * delivered through <code>doOnSensorEvent()</code>, while the listeners not
+ * implementing this interface receive the batches one event at a time.
+ * 
+ * @see AbstractSensor#fireSensorEvents(List)
+ */
+public interface BatchSensorListener
+    extends SensorListener {
+    /**
+     * Invoked with the events fired together, in the order they were fired.
+     * 
+     * @param events
+     *            The <code>SensorEvent</code>s; the list must not be
+     *            modified nor retained after the call.
+     */
+    public void doOnSensorEvents(List<SensorEvent> events);
+}
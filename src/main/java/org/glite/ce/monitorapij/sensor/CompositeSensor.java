@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Base abstract class for the sensors sharing an expensive data source, like
+ * the output of the LRMS commands. At each execution the composite sensor
+ * acquires a single snapshot of the data source and hands it over to all its
+ * active <code>DerivedSensor</code>s, each one deriving its own events: the
+ * scan runs once per period instead of once per logical sensor. No snapshot
+ * is acquired if no derived sensor is active.
+ * 
+ * @param <T>
+ *            The type of the snapshot.
+ */
+public abstract class CompositeSensor<T>
+    extends AbstractSensor {
+    private final static Logger logger = Logger.getLogger(CompositeSensor.class.getName());
+
+    private List<DerivedSensor<T>> derivedSensors;
+
+    /*
+     * offset keeping getFiredEventCount() a running total while derived
+     * sensors are added and removed
+     */
+    private long firedEventOffset = 0;
+
+    public CompositeSensor() {
+        this("CE Sensor", "Sensor");
+    }
+
+    /**
+     * Create a new <code>CompositeSensor</code> object.
+     * 
+     * @param name
+     *            The name of <code>CompositeSensor</code>
+     * @param type
+     *            The type of <code>CompositeSensor</code>
+     */
+    public CompositeSensor(String name, String type) {
+        super(name, type);
+
+        derivedSensors = new CopyOnWriteArrayList<DerivedSensor<T>>();
+    }
+
+    /**
+     * Acquire a snapshot of the shared data source.
+     * 
+     * @return The snapshot, which must not be modified afterwards.
+     * @throws SensorException
+     *             if the data source cannot be read.
+     */
+    protected abstract T acquire()
+        throws SensorException;
+
+    /**
+     * Add a sensor to the ones fed by this composite sensor.
+     * 
+     * @param sensor
+     *            The <code>DerivedSensor</code> to be added.
+     */
+    public void addDerivedSensor(DerivedSensor<T> sensor) {
+        if (sensor == null) {
+            return;
+        }
+
+        synchronized (derivedSensors) {
+            if (!derivedSensors.contains(sensor)) {
+                sensor.setCompositeSensor(this);
+                derivedSensors.add(sensor);
+                firedEventOffset -= sensor.getFiredEventCount();
+            }
+        }
+    }
+
+    /**
+     * Remove a sensor from the ones fed by this composite sensor.
+     * 
+     * @param sensor
+     *            The <code>DerivedSensor</code> to be removed.
+     */
+    public void removeDerivedSensor(DerivedSensor<T> sensor) {
+        if (sensor == null) {
+            return;
+        }
+
+        synchronized (derivedSensors) {
+            if (derivedSensors.remove(sensor)) {
+                sensor.setCompositeSensor(null);
+                firedEventOffset += sensor.getFiredEventCount();
+            }
+        }
+    }
+
+    /**
+     * Get all the sensors fed by this composite sensor.
+     * 
+     * @return A list of <code>DerivedSensor</code>.
+     */
+    public List<DerivedSensor<T>> getDerivedSensors() {
+        return new ArrayList<DerivedSensor<T>>(derivedSensors);
+    }
+
+    /**
+     * Acquire a snapshot and hand it over to all the active derived sensors.
+     * 
+     * @see org.glite.ce.monitorapij.sensor.Sensor#execute()
+     */
+    public void execute()
+        throws SensorException {
+        boolean isAnyActive = false;
+
+        for (Iterator<DerivedSensor<T>> it = derivedSensors.iterator(); it.hasNext() && !isAnyActive;) {
+            isAnyActive = it.next().isActive();
+        }
+
+        if (!isAnyActive) {
+            logger.debug("sensor " + getName() + ": no active derived sensors, skipping acquisition");
+            return;
+        }
+
+        T snapshot = acquire();
+
+        for (Iterator<DerivedSensor<T>> it = derivedSensors.iterator(); it.hasNext();) {
+            it.next().update(snapshot);
+        }
+    }
+
+    /**
+     * Count the events fired by this sensor and by its derived sensors while
+     * attached to it, so that the adaptive execution delay follows the
+     * changes detected by any of them. The count never decreases when a
+     * derived sensor is added, removed or destroyed.
+     * 
+     * @see org.glite.ce.monitorapij.sensor.AbstractSensor#getFiredEventCount()
+     */
+    public long getFiredEventCount() {
+        long result = super.getFiredEventCount();
+
+        synchronized (derivedSensors) {
+            result += firedEventOffset;
+
+            for (Iterator<DerivedSensor<T>> it = derivedSensors.iterator(); it.hasNext();) {
+                result += it.next().getFiredEventCount();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Destroy this sensor together with all its derived sensors.
+     */
+    public void destroySensor() {
+        for (Iterator<DerivedSensor<T>> it = derivedSensors.iterator(); it.hasNext();) {
+            it.next().destroySensor();
+        }
+
+        super.destroySensor();
+    }
+}
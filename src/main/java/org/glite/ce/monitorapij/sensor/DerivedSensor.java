@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Base abstract class for the logical sensors fed by a
+ * <code>CompositeSensor</code>. A derived sensor is a complete sensor as
+ * seen by the monitor (it has its own name, formats and listeners) but it is
+ * never scheduled: each time the composite sensor acquires a new snapshot of
+ * the shared data source, the derive() method is invoked and is expected to
+ * fire the events of this sensor.
+ * 
+ * @param <T>
+ *            The type of the snapshot produced by the composite sensor.
+ */
+public abstract class DerivedSensor<T>
+    extends AbstractSensor {
+    private final static Logger logger = Logger.getLogger(DerivedSensor.class.getName());
+
+    private CompositeSensor<T> composite = null;
+
+    private volatile boolean isStarted = false;
+
+    private volatile boolean isSuspended = false;
+
+    public DerivedSensor() {
+        this("CE Sensor", "Sensor");
+    }
+
+    /**
+     * Create a new <code>DerivedSensor</code> object.
+     * 
+     * @param name
+     *            The name of <code>DerivedSensor</code>
+     * @param type
+     *            The type of <code>DerivedSensor</code>
+     */
+    public DerivedSensor(String name, String type) {
+        super(name, type);
+    }
+
+    /**
+     * Derive the events of this sensor from a snapshot of the shared data
+     * source and fire them.
+     * 
+     * @param snapshot
+     *            The snapshot acquired by the composite sensor; it must not
+     *            be modified since it is shared with the other derived
+     *            sensors.
+     * @throws SensorException
+     *             if the events cannot be derived: an ERROR destroys this
+     *             sensor only.
+     */
+    protected abstract void derive(T snapshot)
+        throws SensorException;
+
+    /**
+     * Get the composite sensor feeding this sensor.
+     * 
+     * @return The <code>CompositeSensor</code>, or null if this sensor has
+     *         not been added to any.
+     */
+    public CompositeSensor<T> getCompositeSensor() {
+        return composite;
+    }
+
+    void setCompositeSensor(CompositeSensor<T> composite) {
+        this.composite = composite;
+    }
+
+    boolean isActive() {
+        return isStarted && !isSuspended && !isDestroyed();
+    }
+
+    /*
+     * invoked by the composite sensor, whose thread is recorded as the one
+     * executing this sensor until derive() returns: awaitTermination() and
+     * interruptExecution() work as for a scheduled sensor
+     */
+    void update(T snapshot) {
+        if (!isActive() || !enterExecution()) {
+            return;
+        }
+
+        try {
+            derive(snapshot);
+        } catch (SensorException se) {
+            logger.error(se.toString(), se);
+
+            if (se.getExceptionID() == SensorException.ERROR) {
+                destroySensor();
+                logger.error("sensor " + getName() + " destroyed because of previous errors");
+            }
+        } catch (RuntimeException ex) {
+            /*
+             * the other derived sensors must still get the snapshot
+             */
+            logger.error("sensor " + getName() + ": " + ex.getMessage(), ex);
+        } finally {
+            exitExecution();
+        }
+    }
+
+    /**
+     * Nothing to do: the events are produced by derive().
+     */
+    public void execute()
+        throws SensorException {
+    }
+
+    /**
+     * Enable the updates from the composite sensor, after setting up the
+     * delivery of the events as specified by the dispatch properties. The
+     * sensor is not scheduled on its own.
+     */
+    public void startSensor() {
+        configureDispatch();
+        isStarted = true;
+    }
+
+    public void suspendSensor() {
+        isSuspended = true;
+    }
+
+    public void resumeSensor() {
+        isSuspended = false;
+    }
+
+    public boolean isSuspended() {
+        return isSuspended;
+    }
+
+    /**
+     * Destroy this sensor and detach it from its composite sensor.
+     */
+    public void destroySensor() {
+        CompositeSensor<T> parent = composite;
+        if (parent != null) {
+            parent.removeDerivedSensor(this);
+        }
+
+        super.destroySensor();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Selection of the <code>SensorEvent</code>s a listener is interested in.
+ * A filter may constrain the event name, the producer, the receiver id, the
+ * receiver group and the presence of parameters: an event is accepted if it
+ * matches one of the values given for each constrained field, and has all
+ * the required parameters. A filter without constraints accepts every event.
+ * <p>
+ * The filter is copied when the listener is registered, so changing it
+ * afterwards has no effect on that registration.
+ * 
+ * @see AbstractSensor#addSensorListener(SensorListener, EventFilter)
+ */
+public class EventFilter {
+    private Set<String> names;
+
+    private Set<String> producers;
+
+    private Set<String> receiverIds;
+
+    private Set<String> receiverGroups;
+
+    private String[] requiredParameters;
+
+    public EventFilter() {
+        names = null;
+        producers = null;
+        receiverIds = null;
+        receiverGroups = null;
+        requiredParameters = new String[0];
+    }
+
+    EventFilter(EventFilter filter) {
+        names = copy(filter.names);
+        producers = copy(filter.producers);
+        receiverIds = copy(filter.receiverIds);
+        receiverGroups = copy(filter.receiverGroups);
+        requiredParameters = filter.requiredParameters.clone();
+    }
+
+    public EventFilter addName(String name) {
+        names = add(names, name);
+        return this;
+    }
+
+    public EventFilter addProducer(String producer) {
+        producers = add(producers, producer);
+        return this;
+    }
+
+    public EventFilter addReceiverId(String receiverId) {
+        receiverIds = add(receiverIds, receiverId);
+        return this;
+    }
+
+    public EventFilter addReceiverGroup(String receiverGroup) {
+        receiverGroups = add(receiverGroups, receiverGroup);
+        return this;
+    }
+
+    /**
+     * Accept only the events having the specified parameter.
+     * 
+     * @param name
+     *            The name of the required parameter.
+     * @return This filter.
+     */
+    public EventFilter addRequiredParameter(String name) {
+        if (name != null) {
+            String[] result = new String[requiredParameters.length + 1];
+
+            System.arraycopy(requiredParameters, 0, result, 0, requiredParameters.length);
+            result[requiredParameters.length] = name;
+            requiredParameters = result;
+        }
+        return this;
+    }
+
+    /**
+     * Get the event names accepted by this filter.
+     * 
+     * @return The names, or null if the name is not constrained.
+     */
+    public Set<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Check whether an event is accepted by this filter.
+     * 
+     * @param event
+     *            The <code>SensorEvent</code> to be checked.
+     * @return True if the event is accepted.
+     */
+    public boolean accept(SensorEvent event) {
+        return (names == null || names.contains(event.getName())) && acceptIgnoringName(event);
+    }
+
+    /**
+     * Check all the constraints of this filter but the name one, already
+     * resolved by the dispatch table.
+     */
+    boolean acceptIgnoringName(SensorEvent event) {
+        if (producers != null && !producers.contains(event.getProducer())) {
+            return false;
+        }
+
+        if (receiverIds != null && !receiverIds.contains(event.getReceiverId())) {
+            return false;
+        }
+
+        if (receiverGroups != null && !receiverGroups.contains(event.getReceiverGroup())) {
+            return false;
+        }
+
+        for (int i = 0; i < requiredParameters.length; i++) {
+            if (event.getParameter(requiredParameters[i]) == null) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check whether this filter has any constraint besides the name one.
+     */
+    boolean hasConstraintsIgnoringName() {
+        return producers != null || receiverIds != null || receiverGroups != null || requiredParameters.length > 0;
+    }
+
+    public String toString() {
+        return "EventFilter[names=" + names + ", producers=" + producers + ", receiverIds=" + receiverIds
+                + ", receiverGroups=" + receiverGroups + ", requiredParameters="
+                + Arrays.asList(requiredParameters) + "]";
+    }
+
+    private static Set<String> add(Set<String> set, String value) {
+        if (set == null) {
+            set = new HashSet<String>();
+        }
+        set.add(value);
+        return set;
+    }
+
+    private static Set<String> copy(Set<String> set) {
+        return set == null ? null : new HashSet<String>(set);
+    }
+}
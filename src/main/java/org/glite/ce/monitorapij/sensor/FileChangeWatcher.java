@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watches a set of files and directories and notifies a
+ * <code>FileChangeListener</code> once they have stopped changing for the
+ * debounce time. A directory changes when any of its direct entries is
+ * added, removed or modified. This is the baseline implementation, which
+ * compares the size and modification time of the paths every poll interval
+ * (default one second) on a single thread shared by all the watchers: a
+ * change is detected up to one poll interval late, and each poll costs one
+ * stat per watched file and per entry of the watched directories. The
+ * multi-release jar overrides
+ * it for Java 21 and later (<code>META-INF/versions/21</code>) with an
+ * implementation based on <code>java.nio.file.WatchService</code>.
+ */
+public class FileChangeWatcher {
+    private final static Logger logger = Logger.getLogger(FileChangeWatcher.class.getName());
+
+    public static final long DEFAULT_POLL_INTERVAL = 1000;
+
+    private static ScheduledThreadPoolExecutor poller = null;
+
+    private String name;
+
+    private File[] paths;
+
+    private long debounce;
+
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+    private FileChangeListener listener;
+
+    private ScheduledFuture<?> future = null;
+
+    private long[] stamps;
+
+    private long lastChangeTime = 0;
+
+    private boolean isChangePending = false;
+
+    /**
+     * Create a new <code>FileChangeWatcher</code>.
+     * 
+     * @param name
+     *            The name of the watcher, used for logging.
+     * @param paths
+     *            The files and directories to be watched.
+     * @param debounce
+     *            The time in milliseconds the paths must stay unchanged
+     *            before the listener is notified.
+     * @param listener
+     *            The <code>FileChangeListener</code> to be notified.
+     */
+    public FileChangeWatcher(String name, File[] paths, long debounce, FileChangeListener listener) {
+        this.name = name;
+        this.paths = paths;
+        this.debounce = debounce;
+        this.listener = listener;
+    }
+
+    /**
+     * Set the interval between two checks of the paths. It must be invoked
+     * before start().
+     * 
+     * @param pollInterval
+     *            The poll interval in milliseconds.
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = Math.max(pollInterval, 1);
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Start watching the paths.
+     * 
+     * @throws IOException
+     *             if the paths cannot be watched.
+     */
+    public synchronized void start()
+        throws IOException {
+        if (future != null) {
+            return;
+        }
+
+        stamps = computeStamps();
+        future = getPoller().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                check();
+            }
+        }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+
+        logger.debug("watcher " + name + " started on " + Arrays.asList(paths));
+    }
+
+    /**
+     * Stop watching the paths.
+     */
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    private void check() {
+        boolean notify = false;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long[] current = computeStamps();
+
+            if (!Arrays.equals(current, stamps)) {
+                stamps = current;
+                lastChangeTime = now;
+                isChangePending = true;
+            }
+
+            if (isChangePending && now - lastChangeTime >= debounce) {
+                isChangePending = false;
+                notify = true;
+            }
+        }
+
+        if (notify) {
+            try {
+                listener.doOnFileChange();
+            } catch (Throwable th) {
+                logger.error("watcher " + name + ": " + th.getMessage(), th);
+            }
+        }
+    }
+
+    private long[] computeStamps() {
+        long[] result = new long[paths.length];
+
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i].isDirectory()) {
+                File[] entries = paths[i].listFiles();
+                long stamp = paths[i].lastModified();
+
+                if (entries != null) {
+                    // order independent, listFiles() gives no ordering guarantee
+                    for (int k = 0; k < entries.length; k++) {
+                        stamp += entries[k].getName().hashCode() ^ stampOf(entries[k]);
+                    }
+                }
+                result[i] = stamp;
+            } else {
+                result[i] = stampOf(paths[i]);
+            }
+        }
+
+        return result;
+    }
+
+    private static long stampOf(File file) {
+        return file.lastModified() * 31 + file.length();
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getPoller() {
+        if (poller == null) {
+            poller = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "FileChangeWatcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return poller;
+    }
+}
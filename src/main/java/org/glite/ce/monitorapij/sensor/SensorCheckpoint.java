@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The cursor of an incremental sensor, i.e. the position (a file offset, a
+ * job ID, a timestamp...) up to which its data source has already been
+ * processed. The cursor is kept in memory and, if a file is specified, it is
+ * persisted so that it survives restarts: each commit writes a temporary file
+ * and renames it over the previous one, so the file always contains either
+ * the old or the new cursor, never a partial one. On the platforms which
+ * cannot rename over an existing file, the previous file is first moved to a
+ * backup copy, which is loaded if a crash occurs before the new file is in
+ * place.
+ */
+public class SensorCheckpoint {
+    private final static Logger logger = Logger.getLogger(SensorCheckpoint.class.getName());
+
+    private static final String CURSOR = "cursor";
+
+    private static final String UPDATE_TIME = "updateTime";
+
+    private File file;
+
+    private String cursor = null;
+
+    private long updateTime = 0;
+
+    /**
+     * Create a new <code>SensorCheckpoint</code> loading the cursor from the
+     * specified file, if it exists.
+     * 
+     * @param file
+     *            The file where the cursor is persisted, or null for an
+     *            in-memory only checkpoint.
+     * @throws IOException
+     *             if the file exists but cannot be read.
+     */
+    public SensorCheckpoint(File file)
+        throws IOException {
+        this.file = file;
+
+        if (file != null && !file.exists() && getBackupFile().exists()) {
+            logger.warn("checkpoint " + file + " not found, loading its backup copy");
+            file = getBackupFile();
+        }
+
+        if (file != null && file.exists()) {
+            Properties props = new Properties();
+            FileInputStream in = new FileInputStream(file);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+
+            cursor = props.getProperty(CURSOR);
+            updateTime = Long.parseLong(props.getProperty(UPDATE_TIME, "0"));
+
+            logger.debug("checkpoint loaded from " + file + ": cursor=[" + cursor + "]");
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private File getBackupFile() {
+        return new File(file.getPath() + ".bak");
+    }
+
+    /**
+     * Get the last committed cursor.
+     * 
+     * @return The cursor, or null if it has never been committed.
+     */
+    public synchronized String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Get the last committed cursor as a number.
+     * 
+     * @param defaultValue
+     *            The value returned if no cursor has been committed.
+     * @return The cursor.
+     */
+    public synchronized long getCursorAsLong(long defaultValue) {
+        if (cursor == null) {
+            return defaultValue;
+        }
+
+        return Long.parseLong(cursor);
+    }
+
+    /**
+     * Get the time of the last commit.
+     * 
+     * @return The commit time in milliseconds since the epoch, or 0 if the
+     *         cursor has never been committed.
+     */
+    public synchronized long getUpdateTime() {
+        return updateTime;
+    }
+
+    /**
+     * Set and persist the cursor.
+     * 
+     * @param newCursor
+     *            The new cursor.
+     * @throws IOException
+     *             if the cursor cannot be persisted; the in-memory cursor is
+     *             left unchanged.
+     */
+    public synchronized void commit(String newCursor)
+        throws IOException {
+        long now = System.currentTimeMillis();
+
+        if (file != null) {
+            Properties props = new Properties();
+            if (newCursor != null) {
+                props.setProperty(CURSOR, newCursor);
+            }
+            props.setProperty(UPDATE_TIME, Long.toString(now));
+
+            File tmpFile = new File(file.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tmpFile);
+            try {
+                props.store(out, null);
+                out.flush();
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            if (!tmpFile.renameTo(file)) {
+                /*
+                 * some platforms cannot rename over an existing file: move it
+                 * aside first, so a complete cursor exists at any time
+                 */
+                File backupFile = getBackupFile();
+                backupFile.delete();
+
+                if (!file.renameTo(backupFile)) {
+                    logger.warn("checkpoint " + file + " not updated: cannot rename it to " + backupFile);
+                    throw new IOException("cannot rename " + file + " to " + backupFile);
+                }
+
+                if (!tmpFile.renameTo(file)) {
+                    backupFile.renameTo(file);
+                    logger.warn("checkpoint " + file + " not updated: cannot rename " + tmpFile + " to it");
+                    throw new IOException("cannot rename " + tmpFile + " to " + file);
+                }
+
+                backupFile.delete();
+            }
+        }
+
+        cursor = newCursor;
+        updateTime = now;
+    }
+}
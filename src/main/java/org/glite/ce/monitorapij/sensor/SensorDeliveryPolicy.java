@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+/**
+ * Backpressure policy of an asynchronous listener, that is what happens to
+ * an event fired while the delivery queue of the listener is full:
+ * <ul>
+ * <li><code>block</code>: the firing thread waits up to a timeout for a free
+ * slot, then the event is dropped;</li>
+ * <li><code>dropNewest</code>: the event is dropped (the default);</li>
+ * <li><code>dropOldest</code>: the oldest queued event is dropped to make
+ * room for the new one;</li>
+ * <li><code>coalesce</code>: an event replaces the queued one having the
+ * same key, if any, keeping its position in the queue; the key is the value
+ * of an event parameter, or the event name if no parameter is specified.
+ * When the queue is full and no event can be replaced the new one is
+ * dropped.</li>
+ * </ul>
+ * Instances are immutable.
+ * 
+ * @see AbstractSensor#addSensorListener(SensorListener, SensorDeliveryPolicy)
+ */
+public final class SensorDeliveryPolicy {
+    public static final String BLOCK = "block";
+
+    public static final String DROP_NEWEST = "dropNewest";
+
+    public static final String DROP_OLDEST = "dropOldest";
+
+    public static final String COALESCE = "coalesce";
+
+    public static final long DEFAULT_BLOCK_TIMEOUT = 1000;
+
+    public static final SensorDeliveryPolicy DEFAULT = new SensorDeliveryPolicy(DROP_NEWEST, 0, null);
+
+    private String type;
+
+    private long blockTimeout;
+
+    private String keyParameter;
+
+    private SensorDeliveryPolicy(String type, long blockTimeout, String keyParameter) {
+        this.type = type;
+        this.blockTimeout = blockTimeout;
+        this.keyParameter = keyParameter;
+    }
+
+    /**
+     * Get a policy blocking the firing thread while the queue is full.
+     * 
+     * @param timeout
+     *            The maximum wait in milliseconds.
+     * @return The policy.
+     */
+    public static SensorDeliveryPolicy block(long timeout) {
+        return new SensorDeliveryPolicy(BLOCK, Math.max(timeout, 0), null);
+    }
+
+    public static SensorDeliveryPolicy dropNewest() {
+        return DEFAULT;
+    }
+
+    public static SensorDeliveryPolicy dropOldest() {
+        return new SensorDeliveryPolicy(DROP_OLDEST, 0, null);
+    }
+
+    /**
+     * Get a policy coalescing the queued events by key.
+     * 
+     * @param keyParameter
+     *            The name of the event parameter holding the key, null for
+     *            using the event name.
+     * @return The policy.
+     */
+    public static SensorDeliveryPolicy coalesce(String keyParameter) {
+        return new SensorDeliveryPolicy(COALESCE, 0, keyParameter);
+    }
+
+    /**
+     * Get a policy from its textual description, as found in the sensor
+     * properties.
+     * 
+     * @param type
+     *            One of <code>block</code>, <code>dropNewest</code>,
+     *            <code>dropOldest</code> and <code>coalesce</code>.
+     * @param blockTimeout
+     *            The timeout of the <code>block</code> policy, in
+     *            milliseconds.
+     * @param keyParameter
+     *            The key parameter of the <code>coalesce</code> policy.
+     * @return The policy.
+     * @throws IllegalArgumentException
+     *             If the type is unknown.
+     */
+    public static SensorDeliveryPolicy valueOf(String type, long blockTimeout, String keyParameter)
+        throws IllegalArgumentException {
+        if (type == null || DROP_NEWEST.equalsIgnoreCase(type)) {
+            return DEFAULT;
+        }
+
+        if (BLOCK.equalsIgnoreCase(type)) {
+            return block(blockTimeout);
+        }
+
+        if (DROP_OLDEST.equalsIgnoreCase(type)) {
+            return dropOldest();
+        }
+
+        if (COALESCE.equalsIgnoreCase(type)) {
+            return coalesce(keyParameter);
+        }
+
+        throw new IllegalArgumentException("unknown delivery policy: " + type);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getBlockTimeout() {
+        return blockTimeout;
+    }
+
+    public String getKeyParameter() {
+        return keyParameter;
+    }
+
+    /**
+     * Get the key used by the <code>coalesce</code> policy.
+     * 
+     * @param event
+     *            The <code>SensorEvent</code>.
+     * @return The key of the event, or null if it cannot be coalesced.
+     */
+    Object getKey(SensorEvent event) {
+        if (keyParameter == null) {
+            return event.getName();
+        }
+
+        return event.getParameter(keyParameter);
+    }
+
+    public String toString() {
+        if (BLOCK.equals(type)) {
+            return type + "(" + blockTimeout + " ms)";
+        }
+
+        if (COALESCE.equals(type)) {
+            return type + "(" + (keyParameter == null ? "name" : keyParameter) + ")";
+        }
+
+        return type;
+    }
+}
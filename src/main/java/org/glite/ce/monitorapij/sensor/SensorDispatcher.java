@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded pool of daemon threads shared by all the
+ * <code>SensorListenerQueue</code>s: a queue holding events submits a drain
+ * task, which delivers a burst of them and submits itself again if more are
+ * left, so the listeners of all the sensors share a few threads instead of
+ * having one each. A listener blocking forever holds one of these threads.
+ * The pool size is read from the system property
+ * <code>org.glite.ce.monitorapij.sensor.dispatchPoolSize</code>, defaulting
+ * to twice the number of available processors (at least 4).
+ * <p>
+ * When more drain tasks are pending than free threads, they are ordered by
+ * the scope of the sensor firing the events, with the same aging applied by
+ * the <code>SharedSensorScheduler</code> to the sensor cycles
+ * (<code>org.glite.ce.monitorapij.sensor.agingTime</code>): the deliveries
+ * of the HIGH scope sensors go first, but a LOW one waiting for more than
+ * twice the aging time overtakes any HIGH one submitted later.
+ */
+final class SensorDispatcher {
+    private final static Logger logger = Logger.getLogger(SensorDispatcher.class.getName());
+
+    static final String POOL_SIZE = "org.glite.ce.monitorapij.sensor.dispatchPoolSize";
+
+    private static SensorDispatcher instance = null;
+
+    private ThreadPoolExecutor workers;
+
+    private long agingTime;
+
+    private AtomicLong sequence;
+
+    private SensorDispatcher(int poolSize, long agingTime) {
+        this.agingTime = Math.max(agingTime, 0);
+        sequence = new AtomicLong(0);
+        workers = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new DispatcherThreadFactory());
+
+        logger.debug("SensorDispatcher created with " + poolSize + " threads, aging time " + agingTime + " ms");
+    }
+
+    static synchronized SensorDispatcher getInstance() {
+        if (instance == null) {
+            instance = new SensorDispatcher(Math.max(1, Integer.getInteger(POOL_SIZE,
+                    Math.max(4, 2 * Runtime.getRuntime().availableProcessors())).intValue()), Long.getLong(
+                    SharedSensorScheduler.AGING_TIME, SharedSensorScheduler.DEFAULT_AGING_TIME).longValue());
+        }
+
+        return instance;
+    }
+
+    /**
+     * Submit a drain task.
+     * 
+     * @param task
+     *            The task delivering the events of a queue.
+     * @param scope
+     *            The scope of the sensor firing the events.
+     */
+    void execute(Runnable task, String scope) {
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(SharedSensorScheduler.getScopeOffset(scope, agingTime));
+
+        workers.execute(new Delivery(task, deadline, sequence.incrementAndGet()));
+    }
+
+    private static class Delivery
+        implements Runnable, Comparable<Delivery> {
+        private Runnable task;
+
+        private long deadline;
+
+        private long sequenceNumber;
+
+        Delivery(Runnable task, long deadline, long sequenceNumber) {
+            this.task = task;
+            this.deadline = deadline;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        public void run() {
+            task.run();
+        }
+
+        public int compareTo(Delivery other) {
+            long diff = deadline - other.deadline;
+
+            if (diff == 0) {
+                diff = sequenceNumber - other.sequenceNumber;
+            }
+
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+
+    private static class DispatcherThreadFactory
+        implements ThreadFactory {
+        private AtomicInteger counter = new AtomicInteger(0);
+
+        public Thread newThread(Runnable r) {
+            boolean virtual = SensorThreads.isVirtualThreadSupported();
+            Thread thread = SensorThreads.newThread(r, "SensorDispatcher-" + counter.incrementAndGet(), virtual);
+
+            if (!virtual) {
+                thread.setDaemon(true);
+            }
+
+            return thread;
+        }
+    }
+}
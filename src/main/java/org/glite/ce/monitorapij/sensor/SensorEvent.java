@@ -40,29 +40,72 @@ import java.util.Hashtable;
 /**
  * This class represents an event generated by a <code>Sensor</code>. It is
  * characterized by the Sensor source of this event, the referring time, an
- * identifying String, a Hashtable of parameters and the
+ * identifying String, a set of parameters and the
  * <code>SensorOutputDataFormat</code> which is applied.
+ * <p>
+ * The parameters are kept in a compact, unsynchronized store: events are
+ * built by one thread and then only read. The <code>Hashtable</code> returned
+ * by <code>getParameters()</code> is created on first request and from then
+ * on holds the parameters, so the changes made through it are seen by the
+ * event as before.
+ * <p>
+ * A cloned event shares with the original an immutable core holding the
+ * id, times, producer, source, name and parameters; only the receiver and
+ * the message are copied. The core is copied by the first event changing
+ * it.
+ * <p>
+ * The timestamp and the expiration time are kept as milliseconds since the
+ * epoch, 0 meaning not set. The <code>Calendar</code> getters build their
+ * object only when first invoked; the changes to the returned object are not
+ * seen by the event, which must be updated through the setters.
+ * <p>
+ * Events can be recycled through a <code>SensorEventPool</code>: see there
+ * the rules about their ownership.
  */
 public class SensorEvent implements TopicEvent, Externalizable, CEResource {
     private static final long serialVersionUID = 1L;
+
+    /*
+     * written by writeExternal() in place of the event ID, which older
+     * versions wrote first and never takes this value, and followed by the
+     * format version
+     */
+    private static final int VERSION_MARKER = Integer.MIN_VALUE;
+
+    /*
+     * 1: the sequence number follows the parameters
+     */
+    private static final int FORMAT_VERSION = 1;
     
     private final static Logger logger = Logger.getLogger(SensorEvent.class.getName());
 
-    private int ID;
-    private java.util.Calendar timestamp;
+    private SensorEventCore core;
+    private Calendar timestampView;
     private java.lang.String[] message;
-    private java.lang.String producer;
-    private Sensor source;
-    private String name;
-    private Hashtable<String, Object> parameters;
     private String outputDataFormatApplied;
-    private Calendar expirationTime;
+    private Calendar expirationTimeView;
     private String receiverId;
     private String receiverGroup;
+
+    /*
+     * the pool this event returns to when released, null if not pooled
+     */
+    private SensorEventPool pool;
+
+    /*
+     * set when a reference to the event is kept beyond its dispatch, which
+     * prevents it from being recycled
+     */
+    private volatile boolean pinned;
+
+    /*
+     * set while the event is idle in its pool
+     */
+    private boolean idle;
     
 
     public SensorEvent() {
-        this(null, -1, Calendar.getInstance(), null);
+        this(null, -1, System.currentTimeMillis(), 0);
     }
 
     /**
@@ -76,7 +119,7 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      *            An integer identifying this event.
      */
     public SensorEvent(Sensor source, int eventID) {
-        this(source, eventID, Calendar.getInstance(), null);
+        this(source, eventID, System.currentTimeMillis(), 0);
     }
 
     /**
@@ -95,16 +138,132 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
     }
 
     public SensorEvent(Sensor source, int eventID, Calendar when, Calendar expirationTime) {
+        this(source, eventID, 0, 0);
+        setTimestamp(when);
+        setExpirationTime(expirationTime);
+    }
+
+    /**
+     * Creates a new SensorEvent object specifying the source Sensor, an
+     * identifying id, the referring time of the event and its expiration
+     * time.
+     * 
+     * @param source
+     *            The source <code>Sensor</code>.
+     * @param eventID
+     *            An int identifying this event.
+     * @param when
+     *            The referring time of this event, in milliseconds since the
+     *            epoch.
+     * @param expirationTime
+     *            The expiration time in milliseconds since the epoch, 0 if
+     *            the event never expires.
+     */
+    public SensorEvent(Sensor source, int eventID, long when, long expirationTime) {
+        core = new SensorEventCore();
 
         if (source != null) {
-            this.source = source;
-            this.producer = source.getName();
+            core.source = source;
+            core.producer = source.getName();
         }
 
-        setID(eventID);
-        setTimestamp(when);
-        setExpirationTime(expirationTime);
-        parameters = new Hashtable<String, Object>(0);
+        core.ID = eventID;
+        core.timestamp = when;
+        core.expirationTime = expirationTime;
+    }
+
+    /*
+     * create an event owned by a pool
+     */
+    SensorEvent(SensorEventPool pool) {
+        this(null, -1, 0, 0);
+        this.pool = pool;
+    }
+
+    /*
+     * create an event sharing the core of the specified one, or with a copy
+     * of it when its parameter table has been handed out and may still be
+     * changed
+     */
+    private SensorEvent(SensorEvent event) {
+        if (event.core.isTableExposed()) {
+            core = event.core.copy();
+        } else {
+            event.core.shared = true;
+            core = event.core;
+        }
+    }
+
+    /**
+     * Check whether this event belongs to a <code>SensorEventPool</code>.
+     * 
+     * @return True if the event is pooled and can still be recycled.
+     */
+    public boolean isPooled() {
+        return pool != null && !pinned;
+    }
+
+    SensorEventPool getPool() {
+        return pool;
+    }
+
+    /*
+     * invoked by the components keeping a reference to the event after its
+     * dispatch (queues, buses, caches): a pinned event is never recycled
+     */
+    void pin() {
+        if (pool != null) {
+            pinned = true;
+        }
+    }
+
+    boolean isPinned() {
+        return pinned;
+    }
+
+    boolean isIdle() {
+        return idle;
+    }
+
+    void setIdle(boolean idle) {
+        this.idle = idle;
+    }
+
+    /*
+     * bring the event back to the state of a new one, for recycling
+     */
+    void reset(Sensor source, int eventID, long when) {
+        if (core.shared) {
+            core = new SensorEventCore();
+        } else {
+            core.reset();
+        }
+
+        if (source != null) {
+            core.source = source;
+            core.producer = source.getName();
+        }
+        core.ID = eventID;
+        core.timestamp = when;
+
+        timestampView = null;
+        expirationTimeView = null;
+        message = null;
+        outputDataFormatApplied = null;
+        receiverId = null;
+        receiverGroup = null;
+    }
+
+    /*
+     * get the core for changing it, copying it first if shared
+     */
+    private SensorEventCore writableCore() {
+        if (core.shared) {
+            core = core.copy();
+        } else {
+            core.invalidateRendered();
+        }
+        return core;
     }
 
 
@@ -114,7 +273,7 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      * @return ID
      */
     public int getID() {
-        return ID;
+        return core.ID;
     }
 
 
@@ -124,7 +283,28 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      * @param ID
      */
     public void setID(int ID) {
-        this.ID = ID;
+        writableCore().ID = ID;
+    }
+
+
+    /**
+     * Gets the sequence number stamped on this event when fired.
+     * 
+     * @return sequenceNumber, 0 if not yet stamped
+     * @see SensorEventSequence
+     */
+    public long getSequenceNumber() {
+        return core.sequenceNumber;
+    }
+
+
+    /**
+     * Sets the sequence number of this event.
+     * 
+     * @param sequenceNumber
+     */
+    public void setSequenceNumber(long sequenceNumber) {
+        writableCore().sequenceNumber = sequenceNumber;
     }
 
 
@@ -134,7 +314,11 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      * @return timestamp
      */
     public java.util.Calendar getTimestamp() {
-        return timestamp;
+        if (timestampView == null && core.timestamp != 0) {
+            timestampView = Calendar.getInstance();
+            timestampView.setTimeInMillis(core.timestamp);
+        }
+        return timestampView;
     }
 
 
@@ -144,7 +328,27 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      * @param timestamp
      */
     public void setTimestamp(java.util.Calendar timestamp) {
-        this.timestamp = timestamp;
+        writableCore().timestamp = timestamp == null ? 0 : timestamp.getTimeInMillis();
+        timestampView = timestamp;
+    }
+
+    /**
+     * Gets the timestamp in milliseconds since the epoch.
+     * 
+     * @return timestamp, 0 if not set
+     */
+    public long getTimestampMillis() {
+        return core.timestamp;
+    }
+
+    /**
+     * Sets the timestamp in milliseconds since the epoch.
+     * 
+     * @param timestamp
+     */
+    public void setTimestampMillis(long timestamp) {
+        writableCore().timestamp = timestamp;
+        timestampView = null;
     }
 
 
@@ -189,7 +393,7 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      * @return producer
      */
     public java.lang.String getProducer() {
-        return producer;
+        return core.producer;
     }
 
 
@@ -199,16 +403,16 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      * @param producer
      */
     public void setProducer(java.lang.String producer) {
-        this.producer = producer;
+        writableCore().producer = producer;
     }
 
     
     public String getName() {
-        return name;
+        return core.name;
     }
 
     public void setName(String name) {
-        this.name = name;
+        writableCore().name = name;
     }
 
     /**
@@ -217,7 +421,11 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      * @return expirationTime
      */
     public java.util.Calendar getExpirationTime() {
-        return expirationTime;
+        if (expirationTimeView == null && core.expirationTime != 0) {
+            expirationTimeView = Calendar.getInstance();
+            expirationTimeView.setTimeInMillis(core.expirationTime);
+        }
+        return expirationTimeView;
     }
 
     /**
@@ -226,11 +434,33 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      * @param expirationTime
      */
     public void setExpirationTime(java.util.Calendar expirationTime) {
-        this.expirationTime = expirationTime;
+        writableCore().expirationTime = expirationTime == null ? 0 : expirationTime.getTimeInMillis();
+        expirationTimeView = expirationTime;
+    }
+
+    /**
+     * Gets the expiration time in milliseconds since the epoch.
+     * 
+     * @return expirationTime, 0 if the event never expires
+     */
+    public long getExpirationTimeMillis() {
+        return core.expirationTime;
+    }
+
+    /**
+     * Sets the expiration time in milliseconds since the epoch.
+     * 
+     * @param expirationTime
+     *            0 if the event never expires
+     */
+    public void setExpirationTimeMillis(long expirationTime) {
+        writableCore().expirationTime = expirationTime;
+        expirationTimeView = null;
     }
 
     public boolean isExpired() {
-        return Calendar.getInstance().after(expirationTime);
+        long expiration = core.expirationTime;
+        return expiration != 0 && System.currentTimeMillis() > expiration;
     }    
         
     public String getReceiverId() {
@@ -255,7 +485,7 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      * @return The <code>SensorOutputDataFormat</code> applied to this event.
      */
     public SensorOutputDataFormat getSensorOutputDataFormatApplied() {
-        if(source == null) {
+        if(core.source == null) {
             return null;            
         }
         return getSource().getFormat(outputDataFormatApplied);
@@ -270,7 +500,7 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      * @return The searched parameter or null if this does not exist.
      */
     public Object getParameter(String name) {
-        return parameters.get(name);
+        return core.getParameter(name);
     }
 
     /**
@@ -282,7 +512,7 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      *            The value of the parameter.
      */
     public void addParameter(String name, Object value) {
-        parameters.put(name, value);
+        writableCore().addParameter(name, value);
     }
 
     /**
@@ -293,7 +523,7 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      *            parameters.
      */
     public void setParameters(Hashtable<String, Object> parameters) {
-        this.parameters = parameters;
+        writableCore().setParameters(parameters);
     }
 
     /**
@@ -303,7 +533,7 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      *         parameters.
      */
     public Hashtable<String, Object> getParameters() {
-        return parameters;
+        return writableCore().getParametersTable();
     }
 
     /**
@@ -325,7 +555,9 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
         }
         
         SensorOutputDataFormat dataformat = null;
-        logger.debug("ApplyFormat name = " + getName() + "  format = " + format + " getSource() != null? " + (getSource()!=null));
+        if (logger.isDebugEnabled()) {
+            logger.debug("ApplyFormat name = " + getName() + "  format = " + format + " getSource() != null? " + (getSource()!=null));
+        }
         if ((format == null) || format.equalsIgnoreCase("default")) {
             dataformat = sensor.getDefaultFormat();
         } else {
@@ -349,6 +581,27 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      *             supported by the source <code>Sensor</code>.
      */
     public void applyFormat(SensorOutputDataFormat dataformat) throws SensorException {
+        setMessage(getFormattedMessage(dataformat));
+        outputDataFormatApplied = dataformat.getName();
+    }
+
+    /**
+     * Get the output of a format for this event, without applying it. Each
+     * format is computed at most once per event, then the result is cached:
+     * it is shared by the clones of this event and dropped when the event is
+     * changed.
+     * 
+     * @param dataformat
+     *            The <code>SensorOutputDataFormat</code> to apply.
+     * @return A copy of the formatted message.
+     * 
+     * @throws SensorException
+     *             An exception is thrown if the specified
+     *             <code>SensorOutputDataFormat</code> is null or is not
+     *             supported by the source <code>Sensor</code>, or if it
+     *             fails.
+     */
+    public String[] getFormattedMessage(SensorOutputDataFormat dataformat) throws SensorException {
         if (dataformat == null) {
             throw (new SensorException(
                     "SensorEvent applyFormat: the sensor output dataformat is null!"));
@@ -360,9 +613,12 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
         }
 
         try {
-            String[] msg = dataformat.apply(parameters);
-            setMessage((String[]) msg.clone());
-            outputDataFormatApplied = dataformat.getName();
+            /*
+             * formats only read the parameters: no need to unshare the core,
+             * whose cached output is shared by all its events
+             */
+            String[] msg = core.render(dataformat);
+            return msg.clone();
         } catch (Exception ex) {
             logger.error(ex.getMessage(), ex);
             throw (new SensorException(ex.getMessage()));
@@ -376,56 +632,60 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
      * @return The source <code>Sensor</code>.
      */
     public Sensor getSource() {
-        return source;
+        return core.source;
     }
 
     public void setSource(Sensor source) {
-        this.source = source;
+        SensorEventCore core = writableCore();
+
+        core.source = source;
         if(source != null) {
-            producer = source.getName();
+            core.producer = source.getName();
         } else {
-            producer = "N/A";
+            core.producer = "N/A";
         }
     }
     
     
     
     /**
-     * Get an event identical to this one.
+     * Get an event identical to this one. The clone shares the core of this
+     * event, so its cost does not depend on the number of parameters.
      * 
      * @return The cloned event.
      */
     public Object clone() {
-        logger.debug("Clone name = " + getName()  + "  producer = " + producer + "    getSource() != null? " + (getSource()!=null));
-        SensorEvent event = new SensorEvent(getSource(), getID(), getTimestamp());
-        event.setName(getName());                
+        if (logger.isDebugEnabled()) {
+            logger.debug("Clone name = " + getName()  + "  producer = " + getProducer() + "    getSource() != null? " + (getSource()!=null));
+        }
+
+        SensorEvent event = new SensorEvent(this);
         event.setReceiverId(getReceiverId());
         event.setReceiverGroup(getReceiverGroup());
-        event.setProducer(getProducer());
 
         if (getMessage() != null) {
             event.setMessage((String[]) getMessage().clone());
         }
-        if (parameters != null) {
-            event.setParameters((Hashtable<String, Object>) parameters.clone());
-        }
-        if (expirationTime != null)
-            event.setExpirationTime((Calendar) expirationTime.clone());
 
         return event;
     }
 
     public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(VERSION_MARKER);
+        out.writeInt(FORMAT_VERSION);
         out.writeInt(getID());
-        writeString(out, name);
-        writeString(out, producer);
+        writeString(out, core.name);
+        writeString(out, core.producer);
         writeString(out, receiverId);
         writeString(out, receiverGroup);
         writeString(out, outputDataFormatApplied);
-        writeCalendar(out, expirationTime);
-        writeCalendar(out, getTimestamp());
+        out.writeLong(core.expirationTime);
+        out.writeLong(core.timestamp);
         writeStringArray(out, getMessage());
         
+        Hashtable<String, Object> parameters = core.parameters;
+        SensorEventParameters compactParameters = core.compactParameters;
+
         if (parameters != null) {
             out.writeInt(parameters.size());
             Enumeration<String> allKeys = parameters.keys();
@@ -434,35 +694,58 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
                 writeString(out, key);
                 out.writeObject(parameters.get(key));
             }
+        } else if (compactParameters != null) {
+            out.writeInt(compactParameters.size());
+            for (int k = 0; k < compactParameters.size(); k++) {
+                writeString(out, compactParameters.getName(k));
+                out.writeObject(compactParameters.getValue(k));
+            }
         } else {
             out.writeInt(-1);
         }
 
+        out.writeLong(core.sequenceNumber);
     }
     
 
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-        setID(in.readInt());
+        int version = 0;
+        int ID = in.readInt();
+
+        /*
+         * the events written by older versions have no format version
+         */
+        if (ID == VERSION_MARKER) {
+            version = in.readInt();
+            if (version < 1 || version > FORMAT_VERSION) {
+                throw new IOException("unsupported SensorEvent format version " + version);
+            }
+            ID = in.readInt();
+        }
+
+        setID(ID);
         setName(readString(in));
         setProducer(readString(in));
         setReceiverId(readString(in));
         setReceiverGroup(readString(in));
         outputDataFormatApplied = readString(in);
-        setExpirationTime(readCalendar(in));
-        setTimestamp(readCalendar(in));
+        setExpirationTimeMillis(in.readLong());
+        setTimestampMillis(in.readLong());
         setMessage(readStringArray(in));
         
         int htSize = in.readInt();
+        SensorEventCore core = writableCore();
+        core.parameters = null;
         if (htSize >= 0) {
-            Hashtable<String, Object> parameters = new Hashtable<String, Object>(htSize);
+            core.compactParameters = new SensorEventParameters(htSize);
             for (int k = 0; k < htSize; k++) {
-                parameters.put(in.readUTF(), in.readObject());
+                core.compactParameters.put(in.readUTF(), in.readObject());
             }
-            setParameters(parameters);
         } else {
-            setParameters(null);
+            core.compactParameters = null;
         }        
 
+        core.sequenceNumber = version >= 1 ? in.readLong() : 0;
     }
 
     private void writeStringArray(ObjectOutput out, String[] array) throws IOException {
@@ -512,20 +795,4 @@ public class SensorEvent implements TopicEvent, Externalizable, CEResource {
         else
             out.writeUTF("_NULL_");
     }
-
-    private void writeCalendar(ObjectOutput out, Calendar cal) throws IOException {
-        if (cal != null)
-            out.writeLong(cal.getTimeInMillis());
-        else
-            out.writeLong(0);
-    }
-
-    private Calendar readCalendar(ObjectInput in) throws IOException {
-        long ts = in.readLong();
-        if (ts == 0)
-            return null;
-        Calendar result = Calendar.getInstance();
-        result.setTimeInMillis(ts);
-        return result;
-    }
 }
@@ -0,0 +1,547 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * High throughput bus delivering <code>SensorEvent</code>s from any number
+ * of publishers to any number of subscribers, built on a preallocated ring
+ * buffer in the manner of the LMAX Disruptor.
+ * <p>
+ * Publishers claim the next sequence number with a compare-and-set on the
+ * cursor, store the event in the slot <code>sequence % bufferSize</code> and
+ * mark the slot as published: no lock is taken and nothing is allocated.
+ * Every subscriber is a <code>SensorListener</code> run by a dedicated
+ * thread which follows its own sequence and delivers all the events
+ * available in a single batch, through a single call if it is a
+ * <code>BatchSensorListener</code>. A publisher never overwrites an event not yet
+ * consumed by all the subscribers: when the buffer is full it waits for the
+ * slowest one up to the publish timeout (default one second), then the event
+ * is dropped and counted, as well as the following ones until a slot is
+ * free again, without waiting; <code>tryPublish()</code> never waits.
+ * Once every subscriber has consumed an event its slot is cleared, so the
+ * bus does not keep the delivered events reachable.
+ * <p>
+ * A subscriber only receives the events published after its subscription:
+ * the events published while there is no subscriber are discarded.
+ * 
+ * @see AbstractSensor#setSensorEventBus(SensorEventBus)
+ */
+public class SensorEventBus {
+    private final static Logger logger = Logger.getLogger(SensorEventBus.class.getName());
+
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    public static final long DEFAULT_PUBLISH_TIMEOUT = 1000;
+
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+    /*
+     * number of times a waiting thread checks again before parking
+     */
+    private static final int SPIN_TRIES = 100;
+
+    /*
+     * round of a slot being overwritten by a publisher
+     */
+    private static final int WRITING = -2;
+
+    private String name;
+
+    private AtomicReferenceArray<SensorEvent> slots;
+
+    /*
+     * slot i holds the round (sequence / bufferSize) of the last event
+     * published in it, so a consumer can tell a fresh event from a stale one
+     * without a shared counter
+     */
+    private AtomicIntegerArray published;
+
+    /*
+     * the last sequence whose slot has been cleared
+     */
+    private AtomicLong clearedSequence;
+
+    private volatile long publishTimeout;
+
+    private AtomicLong droppedEvents;
+
+    private volatile boolean overflowing;
+
+    private int mask;
+
+    private int indexShift;
+
+    private AtomicLong cursor;
+
+    private volatile long cachedGatingSequence;
+
+    private volatile Subscriber[] subscribers;
+
+    private volatile boolean isShutdown;
+
+    private ReentrantLock lock;
+
+    private Condition eventsPublished;
+
+    private AtomicInteger waitingSubscribers;
+
+    /**
+     * Create a new <code>SensorEventBus</code> with a buffer of 65536 events.
+     * 
+     * @param name
+     *            The name of the bus, used for naming the subscriber threads.
+     */
+    public SensorEventBus(String name) {
+        this(name, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a new <code>SensorEventBus</code>.
+     * 
+     * @param name
+     *            The name of the bus, used for naming the subscriber threads.
+     * @param bufferSize
+     *            The number of slots in the ring buffer, rounded up to the
+     *            next power of two.
+     */
+    public SensorEventBus(String name, int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be greater than zero");
+        }
+
+        int size = 1;
+        while (size < bufferSize) {
+            size <<= 1;
+        }
+
+        this.name = name;
+        slots = new AtomicReferenceArray<SensorEvent>(size);
+        published = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        mask = size - 1;
+        indexShift = Integer.numberOfTrailingZeros(size);
+        cursor = new AtomicLong(-1);
+        clearedSequence = new AtomicLong(-1);
+        cachedGatingSequence = -1;
+        publishTimeout = DEFAULT_PUBLISH_TIMEOUT;
+        droppedEvents = new AtomicLong(0);
+        overflowing = false;
+        subscribers = NO_SUBSCRIBERS;
+        isShutdown = false;
+        lock = new ReentrantLock();
+        eventsPublished = lock.newCondition();
+        waitingSubscribers = new AtomicInteger(0);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBufferSize() {
+        return slots.length();
+    }
+
+    public long getPublishTimeout() {
+        return publishTimeout;
+    }
+
+    /**
+     * Set the maximum time publish() waits for a free slot.
+     * 
+     * @param timeout
+     *            The timeout in milliseconds.
+     */
+    public void setPublishTimeout(long timeout) {
+        publishTimeout = Math.max(timeout, 0);
+    }
+
+    /**
+     * Get the number of events dropped by publish() because the ring buffer
+     * stayed full for the whole publish timeout.
+     * 
+     * @return The number of dropped events.
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Get the sequence number of the last claimed slot.
+     * 
+     * @return The cursor of the ring buffer, -1 if nothing was published.
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * Get the number of events which can be published before waiting for the
+     * slowest subscriber.
+     * 
+     * @return The free slots of the ring buffer.
+     */
+    public long getRemainingCapacity() {
+        long current = cursor.get();
+        return slots.length() - (current - getMinimumSequence(current));
+    }
+
+    /**
+     * Register a new subscriber, delivering to it all the events published
+     * from now on on a dedicated thread.
+     * 
+     * @param listener
+     *            The <code>SensorListener</code> to be notified.
+     */
+    public synchronized void subscribe(SensorListener listener) {
+        if (listener == null) {
+            return;
+        }
+
+        if (isShutdown) {
+            throw new IllegalStateException("event bus " + name + " is shut down");
+        }
+
+        Subscriber[] current = subscribers;
+        Subscriber[] result = new Subscriber[current.length + 1];
+        Subscriber subscriber = new Subscriber(listener, cursor.get());
+
+        System.arraycopy(current, 0, result, 0, current.length);
+        result[current.length] = subscriber;
+        subscribers = result;
+
+        Thread thread = SensorThreads.newThread(subscriber, name + "-subscriber-" + current.length, false);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Remove a subscriber. The events not yet delivered to it are discarded.
+     * 
+     * @param listener
+     *            The <code>SensorListener</code> to be removed.
+     */
+    public synchronized void unsubscribe(SensorListener listener) {
+        Subscriber[] current = subscribers;
+
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].listener.equals(listener)) {
+                Subscriber[] result = new Subscriber[current.length - 1];
+
+                System.arraycopy(current, 0, result, 0, i);
+                System.arraycopy(current, i + 1, result, i, current.length - i - 1);
+                subscribers = result;
+                current[i].running = false;
+                signalSubscribers(true);
+
+                // the slots the removed subscriber was the last to need
+                clearConsumedSlots();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop all the subscribers. The events not yet delivered are discarded
+     * and the following publications are ignored.
+     */
+    public synchronized void shutdown() {
+        Subscriber[] current = subscribers;
+
+        isShutdown = true;
+        subscribers = NO_SUBSCRIBERS;
+        for (int i = 0; i < current.length; i++) {
+            current[i].running = false;
+        }
+        signalSubscribers(true);
+        clearConsumedSlots();
+    }
+
+    public boolean isShutdown() {
+        return isShutdown;
+    }
+
+    /**
+     * Publish an event, waiting up to the publish timeout for a free slot if
+     * the ring buffer is full. The event is dropped if the timeout expires,
+     * or immediately if the previous event has been dropped too, so a
+     * stalled subscriber delays the publishers by a single timeout.
+     * 
+     * @param event
+     *            The <code>SensorEvent</code> to be published.
+     * @return False if the event has been dropped, true otherwise.
+     */
+    public boolean publish(SensorEvent event) {
+        if (tryPublish(event)) {
+            overflowing = false;
+            return true;
+        }
+
+        if (overflowing) {
+            droppedEvents.incrementAndGet();
+            return false;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(publishTimeout);
+        int tries = 0;
+
+        while (!tryPublish(event)) {
+            if (isShutdown) {
+                return true;
+            }
+
+            if (deadline - System.nanoTime() <= 0) {
+                droppedEvents.incrementAndGet();
+                overflowing = true;
+                logger.warn(name + ": ring buffer full for " + publishTimeout + " ms, dropping events");
+                return false;
+            }
+
+            if (++tries < SPIN_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(100000L);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Publish an event if the ring buffer has a free slot.
+     * 
+     * @param event
+     *            The <code>SensorEvent</code> to be published.
+     * @return False if the buffer is full, true otherwise.
+     */
+    public boolean tryPublish(SensorEvent event) {
+        if (event == null || isShutdown || subscribers.length == 0) {
+            return true;
+        }
+
+        int size = slots.length();
+        long current;
+        long next;
+
+        do {
+            current = cursor.get();
+            next = current + 1;
+
+            long wrapPoint = next - size;
+            if (wrapPoint > cachedGatingSequence) {
+                long gatingSequence = getMinimumSequence(current);
+                if (wrapPoint > gatingSequence) {
+                    return false;
+                }
+                cachedGatingSequence = gatingSequence;
+            }
+        } while (!cursor.compareAndSet(current, next));
+
+        event.pin();
+
+        /*
+         * a slot marked WRITING is never cleared, see clearConsumedSlots()
+         */
+        int index = (int) next & mask;
+        published.set(index, WRITING);
+        slots.set(index, event);
+        published.set(index, (int) (next >>> indexShift));
+
+        signalSubscribers(false);
+        return true;
+    }
+
+    private long getMinimumSequence(long defaultValue) {
+        Subscriber[] current = subscribers;
+        long minimum = defaultValue;
+
+        for (int i = 0; i < current.length; i++) {
+            minimum = Math.min(minimum, current[i].sequence.get());
+        }
+
+        return minimum;
+    }
+
+    /*
+     * Clear the slots of the events consumed by all the subscribers. A
+     * publisher may be reusing a slot meanwhile: the slot is cleared only if
+     * it still holds the same round before and after reading the event, and
+     * only if it still holds that event.
+     */
+    private void clearConsumedSlots() {
+        long last = getMinimumSequence(cursor.get());
+        long from = clearedSequence.get();
+
+        if (last <= from || !clearedSequence.compareAndSet(from, last)) {
+            return;
+        }
+
+        for (long seq = Math.max(from + 1, last - mask); seq <= last; seq++) {
+            int index = (int) seq & mask;
+            int round = (int) (seq >>> indexShift);
+
+            if (published.get(index) == round) {
+                SensorEvent event = slots.get(index);
+
+                if (event != null && published.get(index) == round) {
+                    slots.compareAndSet(index, event, null);
+                }
+            }
+        }
+    }
+
+    private boolean isPublished(long sequence) {
+        return published.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+    }
+
+    private void signalSubscribers(boolean force) {
+        if (force || waitingSubscribers.get() > 0) {
+            lock.lock();
+            try {
+                eventsPublished.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private class Subscriber
+        implements Runnable {
+        private SensorListener listener;
+
+        /*
+         * the last sequence delivered to the listener
+         */
+        private AtomicLong sequence;
+
+        private volatile boolean running;
+
+        Subscriber(SensorListener listener, long sequence) {
+            this.listener = listener;
+            this.sequence = new AtomicLong(sequence);
+            running = true;
+        }
+
+        public void run() {
+            long next = sequence.get() + 1;
+            List<SensorEvent> batch = null;
+
+            if (listener instanceof BatchSensorListener) {
+                batch = new ArrayList<SensorEvent>();
+            }
+
+            while (running) {
+                if (!awaitPublished(next)) {
+                    break;
+                }
+
+                /*
+                 * deliver in one batch everything published so far,
+                 * releasing the slots only at the end
+                 */
+                long last = next;
+                while (isPublished(last + 1)) {
+                    last++;
+                }
+
+                if (batch != null) {
+                    for (long seq = next; seq <= last; seq++) {
+                        SensorEvent event = slots.get((int) seq & mask);
+                        if (event != null) {
+                            batch.add(event);
+                        }
+                    }
+
+                    try {
+                        ((BatchSensorListener) listener).doOnSensorEvents(batch);
+                    } catch (Throwable th) {
+                        logger.error(name + ": " + th.getMessage(), th);
+                    }
+                    batch.clear();
+                } else {
+                    for (long seq = next; seq <= last && running; seq++) {
+                        SensorEvent event = slots.get((int) seq & mask);
+
+                        /*
+                         * null only if this subscriber has been removed
+                         * meanwhile
+                         */
+                        if (event == null) {
+                            continue;
+                        }
+
+                        try {
+                            listener.doOnSensorEvent(event);
+                        } catch (Throwable th) {
+                            logger.error(name + ": " + th.getMessage(), th);
+                        }
+                    }
+                }
+
+                sequence.set(last);
+                next = last + 1;
+
+                clearConsumedSlots();
+            }
+
+            logger.debug(name + ": subscriber " + listener.getClass().getName() + " terminated");
+        }
+
+        private boolean awaitPublished(long seq) {
+            for (int i = 0; i < SPIN_TRIES; i++) {
+                if (isPublished(seq)) {
+                    return true;
+                }
+                if (!running) {
+                    return false;
+                }
+                Thread.yield();
+            }
+
+            waitingSubscribers.incrementAndGet();
+            lock.lock();
+            try {
+                while (running && !isPublished(seq)) {
+                    eventsPublished.await(100, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException ex) {
+                running = false;
+            } finally {
+                lock.unlock();
+                waitingSubscribers.decrementAndGet();
+            }
+
+            return running;
+        }
+    }
+}
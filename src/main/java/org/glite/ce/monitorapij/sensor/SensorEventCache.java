@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent last-value store of <code>SensorEvent</code>s, implementing the
+ * event overwrite mode of sensors and topics: the events are keyed by the
+ * name of the producing sensor and by an event key (for example a job id),
+ * and a new event replaces in constant time the one stored with the same
+ * key. The memory used is thus bounded by the number of distinct keys
+ * rather than by the number of events.
+ * <p>
+ * The event key is the value of the event parameter specified at
+ * construction, or the event name if no parameter is specified; the events
+ * without a key are not stored. The cache is a <code>SensorListener</code>,
+ * so it can be fed directly by the sensors.
+ * <p>
+ * The events having an expiration time are also kept in a
+ * <code>SensorEventExpiryIndex</code>, so <code>removeExpired()</code> only
+ * visits the expired events instead of scanning the whole cache. Each event
+ * is indexed with the map and the key it is stored under, and the map and
+ * the index are updated together while holding the monitor of the map.
+ * 
+ * @see Sensor#isEventOverwriteModeActive()
+ */
+public class SensorEventCache
+    implements BatchSensorListener {
+    private String keyParameter;
+
+    private ConcurrentHashMap<String, ConcurrentMap<Object, SensorEvent>> sensors;
+
+    private SensorEventExpiryIndex expiryIndex;
+
+    /**
+     * Create a new <code>SensorEventCache</code> keyed by the event name.
+     */
+    public SensorEventCache() {
+        this(null);
+    }
+
+    /**
+     * Create a new <code>SensorEventCache</code>.
+     * 
+     * @param keyParameter
+     *            The name of the event parameter holding the key, null for
+     *            using the event name.
+     */
+    public SensorEventCache(String keyParameter) {
+        this.keyParameter = keyParameter;
+        sensors = new ConcurrentHashMap<String, ConcurrentMap<Object, SensorEvent>>();
+        expiryIndex = new SensorEventExpiryIndex();
+    }
+
+    public String getKeyParameter() {
+        return keyParameter;
+    }
+
+    /**
+     * Get the key of an event.
+     * 
+     * @param event
+     *            The <code>SensorEvent</code>.
+     * @return The value of the key parameter, or the event name, null if the
+     *         event has no key.
+     */
+    public Object getKey(SensorEvent event) {
+        if (keyParameter == null) {
+            return event.getName();
+        }
+
+        return event.getParameter(keyParameter);
+    }
+
+    /**
+     * Store an event, replacing the one of the same sensor having the same
+     * key.
+     * 
+     * @param event
+     *            The <code>SensorEvent</code> to be stored.
+     * @return The replaced event, null if none or if the event has no key.
+     */
+    public SensorEvent put(SensorEvent event) {
+        if (event == null) {
+            return null;
+        }
+
+        Object key = getKey(event);
+        if (key == null) {
+            return null;
+        }
+
+        return put(event.getProducer(), key, event);
+    }
+
+    /**
+     * Store an event under an explicit key.
+     * 
+     * @param sensorName
+     *            The name of the producing sensor.
+     * @param key
+     *            The event key.
+     * @param event
+     *            The <code>SensorEvent</code> to be stored.
+     * @return The replaced event, null if none.
+     */
+    public SensorEvent put(String sensorName, Object key, SensorEvent event) {
+        event.pin();
+
+        while (true) {
+            ConcurrentMap<Object, SensorEvent> events = getEventMap(sensorName, true);
+
+            synchronized (events) {
+                /*
+                 * a map removed by clear() is no longer looked at
+                 */
+                if (sensors.get(sensorName == null ? "" : sensorName) != events) {
+                    continue;
+                }
+
+                SensorEvent previous = events.put(key, event);
+                if (previous != null && previous != event) {
+                    expiryIndex.remove(previous);
+                }
+                expiryIndex.add(event, new Location(events, key));
+
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Get the last event stored for a key.
+     * 
+     * @param sensorName
+     *            The name of the producing sensor.
+     * @param key
+     *            The event key.
+     * @return The event, null if none.
+     */
+    public SensorEvent get(String sensorName, Object key) {
+        ConcurrentMap<Object, SensorEvent> events = getEventMap(sensorName, false);
+        return events == null ? null : events.get(key);
+    }
+
+    /**
+     * Remove the event stored for a key.
+     * 
+     * @param sensorName
+     *            The name of the producing sensor.
+     * @param key
+     *            The event key.
+     * @return The removed event, null if none.
+     */
+    public SensorEvent remove(String sensorName, Object key) {
+        ConcurrentMap<Object, SensorEvent> events = getEventMap(sensorName, false);
+        if (events == null) {
+            return null;
+        }
+
+        synchronized (events) {
+            SensorEvent removed = events.remove(key);
+
+            if (removed != null) {
+                expiryIndex.remove(removed);
+            }
+
+            return removed;
+        }
+    }
+
+    /**
+     * Remove an event, provided it is still the one stored for its key.
+     * 
+     * @param event
+     *            The <code>SensorEvent</code> to be removed.
+     * @return True if the event was removed.
+     */
+    public boolean remove(SensorEvent event) {
+        Object key = getKey(event);
+        if (key == null) {
+            return false;
+        }
+
+        ConcurrentMap<Object, SensorEvent> events = getEventMap(event.getProducer(), false);
+        if (events == null) {
+            return false;
+        }
+
+        synchronized (events) {
+            if (events.remove(key, event)) {
+                expiryIndex.remove(event);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the events currently stored for a sensor.
+     * 
+     * @param sensorName
+     *            The name of the producing sensor.
+     * @return A snapshot of the events, in no particular order.
+     */
+    public List<SensorEvent> getEvents(String sensorName) {
+        ConcurrentMap<Object, SensorEvent> events = getEventMap(sensorName, false);
+
+        if (events == null) {
+            return new ArrayList<SensorEvent>(0);
+        }
+
+        return new ArrayList<SensorEvent>(events.values());
+    }
+
+    /**
+     * Get all the events currently stored.
+     * 
+     * @return A snapshot of the events, in no particular order.
+     */
+    public List<SensorEvent> getEvents() {
+        List<SensorEvent> result = new ArrayList<SensorEvent>();
+        Iterator<ConcurrentMap<Object, SensorEvent>> maps = sensors.values().iterator();
+
+        while (maps.hasNext()) {
+            result.addAll(maps.next().values());
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the number of events stored, that is the number of distinct keys.
+     * 
+     * @return The size of the cache.
+     */
+    public int size() {
+        int result = 0;
+        Iterator<ConcurrentMap<Object, SensorEvent>> maps = sensors.values().iterator();
+
+        while (maps.hasNext()) {
+            result += maps.next().size();
+        }
+
+        return result;
+    }
+
+    /**
+     * Remove the expired events.
+     * 
+     * @return The number of events removed.
+     */
+    public int removeExpired() {
+        List<Object> locations = new ArrayList<Object>();
+        List<SensorEvent> expired = expiryIndex.expire(System.currentTimeMillis(), locations);
+        int result = 0;
+
+        for (int i = 0; i < expired.size(); i++) {
+            SensorEvent event = expired.get(i);
+            Location location = (Location) locations.get(i);
+
+            synchronized (location.events) {
+                /*
+                 * the event may have been stored again since it left the
+                 * index
+                 */
+                if (location.events.remove(location.key, event)) {
+                    expiryIndex.remove(event);
+                    result++;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Remove all the events of a sensor.
+     * 
+     * @param sensorName
+     *            The name of the producing sensor.
+     */
+    public void clear(String sensorName) {
+        ConcurrentMap<Object, SensorEvent> events = sensors.remove(sensorName == null ? "" : sensorName);
+
+        if (events != null) {
+            synchronized (events) {
+                Iterator<SensorEvent> iterator = events.values().iterator();
+                while (iterator.hasNext()) {
+                    expiryIndex.remove(iterator.next());
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        Iterator<String> names = sensors.keySet().iterator();
+
+        while (names.hasNext()) {
+            clear(names.next());
+        }
+    }
+
+    public void doOnSensorEvent(SensorEvent event) {
+        put(event);
+    }
+
+    public void doOnSensorEvents(List<SensorEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            put(events.get(i));
+        }
+    }
+
+    private ConcurrentMap<Object, SensorEvent> getEventMap(String sensorName, boolean create) {
+        if (sensorName == null) {
+            sensorName = "";
+        }
+
+        ConcurrentMap<Object, SensorEvent> events = sensors.get(sensorName);
+
+        if (events == null && create) {
+            events = new ConcurrentHashMap<Object, SensorEvent>();
+
+            ConcurrentMap<Object, SensorEvent> previous = sensors.putIfAbsent(sensorName, events);
+            if (previous != null) {
+                events = previous;
+            }
+        }
+
+        return events;
+    }
+
+    /*
+     * where an indexed event is stored
+     */
+    private static final class Location {
+        private ConcurrentMap<Object, SensorEvent> events;
+
+        private Object key;
+
+        Location(ConcurrentMap<Object, SensorEvent> events, Object key) {
+            this.events = events;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.Hashtable;
+
+/**
+ * The part of a <code>SensorEvent</code> describing what happened (id,
+ * times, producer, source, name and parameters), as opposed to the per
+ * delivery fields (receiver, applied format and formatted message). A
+ * cloned event shares its core with the original, unless the parameter
+ * table of the latter has been handed out: the core is marked as shared and is never modified again, every event holding it copies the
+ * core before its first change (copy-on-write). Fanning out an event to many
+ * subscribers thus costs one small envelope per subscriber.
+ * <p>
+ * The core also caches the output of each <code>SensorOutputDataFormat</code>
+ * applied to it, so every format is computed at most once per event even
+ * when many envelopes request it. The cache is dropped whenever the core is
+ * changed. Each format gets its own copy of the parameters, which leaves the
+ * compact store in place and cannot be altered by the other formats; nothing
+ * is cached once the parameter table has been handed out to, or set by, a
+ * caller which may change it afterwards.
+ */
+final class SensorEventCore {
+    int ID;
+
+    long sequenceNumber;
+
+    long timestamp;
+
+    long expirationTime;
+
+    String producer;
+
+    Sensor source;
+
+    String name;
+
+    /*
+     * exactly one of the two holds the parameters, unless they are null
+     */
+    SensorEventParameters compactParameters;
+
+    Hashtable<String, Object> parameters;
+
+    /*
+     * set once the core is referenced by more than one event
+     */
+    volatile boolean shared;
+
+    /*
+     * set once the parameters table is referenced outside the core
+     */
+    private boolean tableExposed;
+
+    /*
+     * the rendered outputs as pairs of format and message, replaced (never
+     * modified) when a format is added
+     */
+    private volatile Object[] rendered;
+
+    SensorEventCore() {
+        compactParameters = new SensorEventParameters();
+        parameters = null;
+        shared = false;
+        tableExposed = false;
+    }
+
+    /**
+     * Get a private, unshared copy of this core.
+     */
+    SensorEventCore copy() {
+        SensorEventCore result = new SensorEventCore();
+
+        result.ID = ID;
+        result.sequenceNumber = sequenceNumber;
+        result.timestamp = timestamp;
+        result.expirationTime = expirationTime;
+        result.producer = producer;
+        result.source = source;
+        result.name = name;
+
+        if (parameters != null) {
+            @SuppressWarnings("unchecked")
+            Hashtable<String, Object> table = (Hashtable<String, Object>) parameters.clone();
+
+            result.parameters = table;
+            result.compactParameters = null;
+        } else if (compactParameters != null) {
+            result.compactParameters = compactParameters.copy();
+        } else {
+            result.compactParameters = null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Bring an unshared core back to the state of a new one, keeping the
+     * parameter store for reuse.
+     */
+    void reset() {
+        ID = -1;
+        sequenceNumber = 0;
+        timestamp = 0;
+        expirationTime = 0;
+        producer = null;
+        source = null;
+        name = null;
+        parameters = null;
+        tableExposed = false;
+        rendered = null;
+
+        if (compactParameters == null) {
+            compactParameters = new SensorEventParameters();
+        } else {
+            compactParameters.clear();
+        }
+    }
+
+    /**
+     * Check whether the parameters table is referenced outside the core: such
+     * a core must not be shared.
+     */
+    boolean isTableExposed() {
+        return tableExposed;
+    }
+
+    /**
+     * Get the output of a format, computing it on first request. The
+     * returned array must not be modified.
+     * 
+     * @throws Exception
+     *             If the format fails.
+     */
+    String[] render(SensorOutputDataFormat format)
+        throws Exception {
+        String[] message = getRendered(format);
+        if (message != null) {
+            return message;
+        }
+
+        synchronized (this) {
+            message = getRendered(format);
+            if (message != null) {
+                return message;
+            }
+
+            message = format.apply(getParametersCopy());
+
+            /*
+             * an exposed table may be changed without notice: nothing is
+             * cached
+             */
+            if (message != null && !tableExposed) {
+                Object[] current = rendered;
+                int length = current == null ? 0 : current.length;
+                Object[] result = new Object[length + 2];
+
+                if (current != null) {
+                    System.arraycopy(current, 0, result, 0, length);
+                }
+                result[length] = format;
+                result[length + 1] = message;
+                rendered = result;
+            }
+
+            return message;
+        }
+    }
+
+    /**
+     * Drop the rendered outputs, invoked before every change.
+     */
+    void invalidateRendered() {
+        rendered = null;
+    }
+
+    /*
+     * the parameters as passed to a format, which may modify them
+     */
+    private Hashtable<String, Object> getParametersCopy() {
+        if (parameters != null) {
+            @SuppressWarnings("unchecked")
+            Hashtable<String, Object> table = (Hashtable<String, Object>) parameters.clone();
+
+            return table;
+        }
+
+        return compactParameters == null ? null : compactParameters.toHashtable();
+    }
+
+    private String[] getRendered(SensorOutputDataFormat format) {
+        Object[] current = rendered;
+
+        if (current != null) {
+            for (int i = 0; i < current.length; i += 2) {
+                if (current[i] == format) {
+                    return (String[]) current[i + 1];
+                }
+            }
+        }
+
+        return null;
+    }
+
+    Object getParameter(String name) {
+        if (parameters != null) {
+            return parameters.get(name);
+        }
+
+        return compactParameters == null ? null : compactParameters.get(name);
+    }
+
+    void addParameter(String name, Object value) {
+        if (parameters != null) {
+            parameters.put(name, value);
+            return;
+        }
+
+        if (compactParameters == null) {
+            compactParameters = new SensorEventParameters();
+        }
+        compactParameters.put(name, value);
+    }
+
+    void setParameters(Hashtable<String, Object> parameters) {
+        this.parameters = parameters;
+        compactParameters = null;
+        tableExposed = parameters != null;
+    }
+
+    /**
+     * Get the parameters as a <code>Hashtable</code> to be handed out to a
+     * caller. An unshared core switches to the returned table, which can be
+     * modified; a shared one returns the current table, or a new one built
+     * from the compact store, which must only be read.
+     */
+    Hashtable<String, Object> getParametersTable() {
+        if (parameters == null && compactParameters != null) {
+            if (shared) {
+                return compactParameters.toHashtable();
+            }
+
+            parameters = compactParameters.toHashtable();
+            compactParameters = null;
+        }
+
+        tableExposed = parameters != null;
+        return parameters;
+    }
+}
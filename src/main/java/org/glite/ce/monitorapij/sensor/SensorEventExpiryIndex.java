@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Index of <code>SensorEvent</code>s by expiration time, letting the holders
+ * of many events evict the expired ones without scanning them all. It is a
+ * hashed timer wheel: time is divided in ticks and each event is linked in
+ * the bucket of the tick it expires in, modulo the wheel size. Adding and
+ * removing an event cost O(1); <code>expire()</code> only visits the buckets
+ * of the ticks elapsed since its previous invocation, where the events
+ * expiring in a later turn of the wheel are skipped. The cost per event is
+ * thus amortized O(1) when the wheel spans most of the expiration delays.
+ * <p>
+ * The events without an expiration time are not indexed. The index uses the
+ * expiration time the event had when added: an event whose expiration
+ * changes must be removed and added again. An event can be added with an
+ * opaque key, returned along with it by <code>expire()</code>, so that its
+ * holder finds it again without a search. The index is thread safe.
+ */
+public class SensorEventExpiryIndex {
+    public static final long DEFAULT_TICK = 1000;
+
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private long tick;
+
+    private Node[] wheel;
+
+    private int mask;
+
+    private IdentityHashMap<SensorEvent, Node> nodes;
+
+    /*
+     * the tick of the last expire(), whose bucket may still hold events
+     * expiring later within that tick
+     */
+    private long currentTick;
+
+    /**
+     * Create a new <code>SensorEventExpiryIndex</code> with a tick of one
+     * second and 512 buckets.
+     */
+    public SensorEventExpiryIndex() {
+        this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Create a new <code>SensorEventExpiryIndex</code>.
+     * 
+     * @param tick
+     *            The duration of a tick in milliseconds.
+     * @param wheelSize
+     *            The number of buckets, rounded up to the next power of two.
+     */
+    public SensorEventExpiryIndex(long tick, int wheelSize) {
+        if (tick < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("tick and wheelSize must be greater than zero");
+        }
+
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+
+        this.tick = tick;
+        wheel = new Node[size];
+        mask = size - 1;
+        nodes = new IdentityHashMap<SensorEvent, Node>();
+        currentTick = System.currentTimeMillis() / tick;
+    }
+
+    /**
+     * Index an event by its expiration time. An event already indexed is
+     * moved according to its current expiration time.
+     * 
+     * @param event
+     *            The <code>SensorEvent</code>.
+     * @return False if the event never expires and has not been indexed.
+     */
+    public boolean add(SensorEvent event) {
+        return add(event, null);
+    }
+
+    /**
+     * Index an event by its expiration time, together with a key identifying
+     * it for its holder. An event already indexed is moved according to its
+     * current expiration time and its key is replaced.
+     * 
+     * @param event
+     *            The <code>SensorEvent</code>.
+     * @param key
+     *            The key returned by <code>expire()</code> with the event,
+     *            can be null.
+     * @return False if the event never expires and has not been indexed.
+     */
+    public synchronized boolean add(SensorEvent event, Object key) {
+        remove(event);
+
+        long expirationTime = event.getExpirationTimeMillis();
+        if (expirationTime == 0) {
+            return false;
+        }
+
+        Node node = new Node(event, key, expirationTime);
+        int bucket = (int) (Math.max(expirationTime / tick, currentTick) & mask);
+
+        node.bucket = bucket;
+        node.next = wheel[bucket];
+        if (node.next != null) {
+            node.next.prev = node;
+        }
+        wheel[bucket] = node;
+        nodes.put(event, node);
+
+        return true;
+    }
+
+    /**
+     * Remove an event from the index.
+     * 
+     * @param event
+     *            The <code>SensorEvent</code>.
+     * @return True if the event was indexed.
+     */
+    public synchronized boolean remove(SensorEvent event) {
+        Node node = nodes.remove(event);
+
+        if (node == null) {
+            return false;
+        }
+
+        unlink(node);
+        return true;
+    }
+
+    /**
+     * Remove from the index and return the events expired at the specified
+     * time, that is whose expiration time is before it.
+     * 
+     * @param now
+     *            The current time in milliseconds since the epoch.
+     * @return The expired events, in no particular order.
+     */
+    public List<SensorEvent> expire(long now) {
+        return expire(now, null);
+    }
+
+    /**
+     * Remove from the index and return the events expired at the specified
+     * time, that is whose expiration time is before it, together with the
+     * keys they were added with.
+     * 
+     * @param now
+     *            The current time in milliseconds since the epoch.
+     * @param keys
+     *            The list the key of each expired event is appended to, at
+     *            the position of the event in the result; can be null.
+     * @return The expired events, in no particular order.
+     */
+    public synchronized List<SensorEvent> expire(long now, List<Object> keys) {
+        List<SensorEvent> result = new ArrayList<SensorEvent>();
+        long nowTick = now / tick;
+
+        if (nowTick < currentTick) {
+            return result;
+        }
+
+        /*
+         * after a whole turn of the wheel every bucket has been visited
+         */
+        long first = Math.max(currentTick, nowTick - mask);
+
+        for (long t = first; t <= nowTick; t++) {
+            Node node = wheel[(int) (t & mask)];
+
+            while (node != null) {
+                Node next = node.next;
+
+                if (node.expirationTime < now) {
+                    unlink(node);
+                    nodes.remove(node.event);
+                    result.add(node.event);
+                    if (keys != null) {
+                        keys.add(node.key);
+                    }
+                }
+                node = next;
+            }
+        }
+
+        currentTick = nowTick;
+        return result;
+    }
+
+    /**
+     * Remove from the index and return the events expired now.
+     * 
+     * @return The expired events, in no particular order.
+     */
+    public List<SensorEvent> expire() {
+        return expire(System.currentTimeMillis());
+    }
+
+    public synchronized boolean contains(SensorEvent event) {
+        return nodes.containsKey(event);
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = null;
+        }
+        nodes.clear();
+    }
+
+    private void unlink(Node node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            wheel[node.bucket] = node.next;
+        }
+
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static class Node {
+        private SensorEvent event;
+
+        private Object key;
+
+        private long expirationTime;
+
+        private int bucket;
+
+        private Node prev;
+
+        private Node next;
+
+        Node(SensorEvent event, Object key, long expirationTime) {
+            this.event = event;
+            this.key = key;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
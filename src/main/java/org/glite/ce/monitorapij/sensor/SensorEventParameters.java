@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.Hashtable;
+
+/**
+ * Compact, unsynchronized and insertion ordered store of the parameters of a
+ * <code>SensorEvent</code>. Events are filled by a single thread and then
+ * only read, so the monitor taken by a <code>Hashtable</code> on every
+ * access is pure overhead. Names and values are kept in parallel arrays,
+ * searched linearly while they are few; beyond <code>INDEX_THRESHOLD</code>
+ * entries an open addressing table of positions is built. Parameters are
+ * never removed, so the index needs no tombstones. As for the
+ * <code>Hashtable</code>, neither names nor values can be null.
+ */
+final class SensorEventParameters {
+    private static final int INDEX_THRESHOLD = 8;
+
+    private static final String[] NO_NAMES = new String[0];
+
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private String[] names;
+
+    private Object[] values;
+
+    private int size;
+
+    /*
+     * position + 1 of the parameter hashed in each slot, 0 for an empty slot;
+     * null while the parameters are few
+     */
+    private int[] index;
+
+    SensorEventParameters() {
+        names = NO_NAMES;
+        values = NO_VALUES;
+        size = 0;
+        index = null;
+    }
+
+    SensorEventParameters(int capacity) {
+        names = new String[capacity];
+        values = new Object[capacity];
+        size = 0;
+        index = null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String getName(int i) {
+        return names[i];
+    }
+
+    Object getValue(int i) {
+        return values[i];
+    }
+
+    Object get(String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : values[i];
+    }
+
+    /**
+     * Set a parameter, keeping its original position if already present.
+     * 
+     * @return The previous value, null if none.
+     */
+    Object put(String name, Object value) {
+        if (name == null || value == null) {
+            throw new NullPointerException();
+        }
+
+        int i = indexOf(name);
+        if (i >= 0) {
+            Object previous = values[i];
+            values[i] = value;
+            return previous;
+        }
+
+        if (size == names.length) {
+            int capacity = Math.max(4, size * 2);
+            String[] newNames = new String[capacity];
+            Object[] newValues = new Object[capacity];
+
+            System.arraycopy(names, 0, newNames, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            names = newNames;
+            values = newValues;
+        }
+
+        names[size] = name;
+        values[size] = value;
+        size++;
+
+        if (index != null) {
+            if (size * 2 > index.length) {
+                rebuildIndex();
+            } else {
+                insert(size - 1);
+            }
+        } else if (size > INDEX_THRESHOLD) {
+            rebuildIndex();
+        }
+
+        return null;
+    }
+
+    /**
+     * Remove all the parameters, keeping the allocated arrays for reuse.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            names[i] = null;
+            values[i] = null;
+        }
+        size = 0;
+        index = null;
+    }
+
+    SensorEventParameters copy() {
+        SensorEventParameters result = new SensorEventParameters(size);
+
+        System.arraycopy(names, 0, result.names, 0, size);
+        System.arraycopy(values, 0, result.values, 0, size);
+        result.size = size;
+        if (index != null) {
+            result.index = index.clone();
+        }
+
+        return result;
+    }
+
+    Hashtable<String, Object> toHashtable() {
+        Hashtable<String, Object> result = new Hashtable<String, Object>(Math.max(size * 2, 1));
+
+        for (int i = 0; i < size; i++) {
+            result.put(names[i], values[i]);
+        }
+
+        return result;
+    }
+
+    private int indexOf(String name) {
+        if (name == null) {
+            throw new NullPointerException();
+        }
+
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int mask = index.length - 1;
+        for (int slot = hash(name) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            int i = index[slot] - 1;
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private void rebuildIndex() {
+        int capacity = 16;
+        while (capacity < size * 4) {
+            capacity <<= 1;
+        }
+
+        index = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            insert(i);
+        }
+    }
+
+    private void insert(int i) {
+        int mask = index.length - 1;
+        int slot = hash(names[i]) & mask;
+
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = i + 1;
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of reusable <code>SensorEvent</code>s, for sensors firing
+ * events at high rate: a recycled event keeps its parameter store, so
+ * neither the event nor its parameters are allocated again.
+ * <p>
+ * Ownership rules:
+ * <ul>
+ * <li>an event obtained with <code>acquire()</code> belongs to the caller,
+ * which either fires it or gives it back with <code>release()</code>;</li>
+ * <li>firing a pooled event with <code>AbstractSensor.fireSensorEvent()</code>
+ * or <code>fireSensorEvents()</code> hands it over to the sensor, which
+ * releases it once the listeners have been notified: the caller must not
+ * use it afterwards;</li>
+ * <li>an event written out instead of being fired (e.g. to a spool file or
+ * a socket) is given back with <code>writeAndRelease()</code>, which
+ * releases it once the serialization has completed;</li>
+ * <li>a listener must not keep a reference to a pooled event after its
+ * <code>doOnSensorEvent()</code> returns: it must keep a
+ * <code>clone()</code> instead, which is cheap as it shares the immutable
+ * event core and is never recycled. Likewise an event being serialized must
+ * not be released before the serialization completes;</li>
+ * <li>the asynchronous delivery queues, the <code>SensorEventBus</code> and
+ * the <code>SensorEventCache</code> keep the events they receive: such
+ * events are pinned and left to the garbage collector instead of being
+ * recycled.</li>
+ * </ul>
+ * The pool is thread safe.
+ */
+public class SensorEventPool {
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private ConcurrentLinkedQueue<SensorEvent> events;
+
+    private AtomicInteger size;
+
+    private int maxSize;
+
+    private AtomicLong created;
+
+    private AtomicLong recycled;
+
+    public SensorEventPool() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a new <code>SensorEventPool</code>.
+     * 
+     * @param maxSize
+     *            The maximum number of idle events kept by the pool.
+     */
+    public SensorEventPool(int maxSize) {
+        this.maxSize = Math.max(maxSize, 0);
+        events = new ConcurrentLinkedQueue<SensorEvent>();
+        size = new AtomicInteger(0);
+        created = new AtomicLong(0);
+        recycled = new AtomicLong(0);
+    }
+
+    /**
+     * Get an event, reusing an idle one if available. The event is in the
+     * same state as a new one, with the timestamp set to the current time.
+     * 
+     * @param source
+     *            The source <code>Sensor</code>.
+     * @param eventID
+     *            An integer identifying the event.
+     * @return The event.
+     */
+    public SensorEvent acquire(Sensor source, int eventID) {
+        SensorEvent event = events.poll();
+
+        if (event == null) {
+            event = new SensorEvent(this);
+            created.incrementAndGet();
+        } else {
+            size.decrementAndGet();
+        }
+
+        event.reset(source, eventID, System.currentTimeMillis());
+        event.setIdle(false);
+        return event;
+    }
+
+    /**
+     * Give an event back to the pool. Events not acquired from this pool,
+     * pinned, already released or exceeding the pool capacity are ignored.
+     * 
+     * @param event
+     *            The event to be recycled.
+     */
+    public void release(SensorEvent event) {
+        if (event == null || event.getPool() != this || event.isPinned()) {
+            return;
+        }
+
+        synchronized (event) {
+            if (event.isIdle()) {
+                return;
+            }
+            event.setIdle(true);
+        }
+
+        if (size.incrementAndGet() > maxSize) {
+            /*
+             * the event is left to the garbage collector
+             */
+            size.decrementAndGet();
+            return;
+        }
+
+        /*
+         * drop the references to the sensor data while idle
+         */
+        event.reset(null, -1, 0);
+        events.offer(event);
+        recycled.incrementAndGet();
+    }
+
+    /**
+     * Serialize an event and give it back to the pool, even if the
+     * serialization fails. The event is written with
+     * <code>writeExternal()</code> rather than <code>writeObject()</code>: an
+     * <code>ObjectOutputStream</code> remembers the objects it has written
+     * and would write a recycled event as a back-reference to its previous
+     * content. It is read back with <code>readExternal()</code> on a new
+     * <code>SensorEvent</code>.
+     * 
+     * @param event
+     *            The event to be serialized and recycled.
+     * @param out
+     *            The stream to write the event to.
+     * @throws IOException
+     *             if the event cannot be written.
+     */
+    public void writeAndRelease(SensorEvent event, ObjectOutput out)
+        throws IOException {
+        try {
+            event.writeExternal(out);
+        } finally {
+            release(event);
+        }
+    }
+
+    /**
+     * Get the number of idle events.
+     * 
+     * @return The size of the pool.
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the number of events allocated by the pool.
+     * 
+     * @return The created events.
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * Get the number of events given back to the pool.
+     * 
+     * @return The recycled events.
+     */
+    public long getRecycledCount() {
+        return recycled.get();
+    }
+}
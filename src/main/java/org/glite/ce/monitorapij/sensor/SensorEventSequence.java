@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free generator of strictly increasing 64-bit event sequence numbers,
+ * which <code>AbstractSensor</code> stamps on the events when they are fired.
+ * Unlike the <code>int</code> ids chosen by the sensors, they neither wrap
+ * nor repeat, so they can be relied upon for deduplication, ordering and
+ * replay.
+ * <p>
+ * By default all the sensors share the global sequence, which starts from
+ * the current time in milliseconds shifted left by 16 bits: the numbers
+ * keep increasing across restarts unless more than 65536 events per
+ * millisecond were generated on average. The start value can be set through
+ * the system property
+ * <code>org.glite.ce.monitorapij.sensor.sequenceStart</code>.
+ * 
+ * @see AbstractSensor#setSensorEventSequence(SensorEventSequence)
+ */
+public class SensorEventSequence {
+    public static final String SEQUENCE_START = "org.glite.ce.monitorapij.sensor.sequenceStart";
+
+    private static final SensorEventSequence global = new SensorEventSequence(Long.getLong(SEQUENCE_START,
+            System.currentTimeMillis() << 16).longValue());
+
+    private AtomicLong last;
+
+    /**
+     * Create a new <code>SensorEventSequence</code>.
+     * 
+     * @param start
+     *            The first number generated; must be greater than zero, as 0
+     *            marks the events not yet stamped.
+     */
+    public SensorEventSequence(long start) {
+        if (start < 1) {
+            throw new IllegalArgumentException("start must be greater than zero");
+        }
+
+        last = new AtomicLong(start - 1);
+    }
+
+    /**
+     * Get the sequence shared by all the sensors not having their own.
+     * 
+     * @return The global sequence.
+     */
+    public static SensorEventSequence getGlobal() {
+        return global;
+    }
+
+    /**
+     * Get the next number of the sequence.
+     * 
+     * @return A number greater than all the ones previously returned.
+     */
+    public long next() {
+        return last.incrementAndGet();
+    }
+
+    /**
+     * Get the last number generated.
+     * 
+     * @return The last number, or the start value minus one if none.
+     */
+    public long getLast() {
+        return last.get();
+    }
+
+    /**
+     * Stamp an event with the next number, unless it already has one.
+     * 
+     * @param event
+     *            The <code>SensorEvent</code> to be stamped.
+     * @return The sequence number of the event.
+     */
+    public long stamp(SensorEvent event) {
+        long number = event.getSequenceNumber();
+
+        if (number == 0) {
+            number = next();
+            event.setSequenceNumber(number);
+        }
+
+        return number;
+    }
+}
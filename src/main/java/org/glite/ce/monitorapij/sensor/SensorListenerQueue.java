@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <code>SensorListener</code> decoupling a listener from the thread firing
+ * the events: the events are put into a bounded queue and delivered to the
+ * wrapped listener by the threads of the shared <code>SensorDispatcher</code>,
+ * so a slow listener delays neither the sensor nor the other listeners. At
+ * most one drain task per queue is submitted at a time, so the events are
+ * delivered to the listener one at a time and in order, while the queues of
+ * the different listeners are drained in the order given by the scope of the
+ * sensor (see <code>SensorDispatcher</code>). What happens when the queue is
+ * full is decided by the <code>SensorDeliveryPolicy</code>; the dropped and
+ * coalesced events are counted. The events found in the queue are delivered
+ * in one batch to a <code>BatchSensorListener</code>.
+ * <p>
+ * A queue replacing another one for the same listener, e.g. because the
+ * policy of the sensor has changed, starts delivering only once its
+ * predecessor has delivered all its events: the events fired meanwhile wait
+ * in the new queue, so the listener never receives them concurrently or out
+ * of order.
+ */
+final class SensorListenerQueue
+    implements BatchSensorListener, Runnable {
+    private final static Logger logger = Logger.getLogger(SensorListenerQueue.class.getName());
+
+    /*
+     * maximum number of events delivered by a drain task before giving the
+     * dispatcher thread to the other queues
+     */
+    private static final int BURST = 64;
+
+    private SensorListener listener;
+
+    private Sensor owner;
+
+    private SensorDeliveryPolicy policy;
+
+    private BlockingQueue<SensorEvent> queue;
+
+    /*
+     * coalesce policy: the latest event fired for each key having an event
+     * in the queue; the queued event only holds the position
+     */
+    private HashMap<Object, SensorEvent> pending;
+
+    private AtomicLong droppedEvents;
+
+    private AtomicLong coalescedEvents;
+
+    private volatile boolean closed;
+
+    /*
+     * the listener receiving the events fired after close()
+     */
+    private volatile SensorListener successor;
+
+    /*
+     * the queue which must terminate before this one starts delivering
+     */
+    private volatile SensorListenerQueue predecessor;
+
+    private volatile boolean terminated;
+
+    private CountDownLatch termination;
+
+    private volatile boolean overflowing;
+
+    private AtomicBoolean scheduled;
+
+    private List<SensorEvent> batch;
+
+    private String name;
+
+    SensorListenerQueue(SensorListener listener, int capacity, SensorDeliveryPolicy policy, Sensor owner) {
+        this(listener, capacity, policy, owner, null);
+    }
+
+    /**
+     * Create a queue replacing another one.
+     * 
+     * @param predecessor
+     *            The queue which must deliver all its events before this
+     *            one, null for none.
+     */
+    SensorListenerQueue(SensorListener listener, int capacity, SensorDeliveryPolicy policy, Sensor owner,
+            SensorListenerQueue predecessor) {
+        this.listener = listener;
+        this.predecessor = predecessor;
+        this.owner = owner;
+        this.policy = policy;
+        this.name = owner.getName() + "-listener-" + listener.getClass().getSimpleName();
+        queue = new ArrayBlockingQueue<SensorEvent>(capacity);
+        droppedEvents = new AtomicLong(0);
+        coalescedEvents = new AtomicLong(0);
+        closed = false;
+        successor = null;
+        terminated = false;
+        termination = new CountDownLatch(1);
+        overflowing = false;
+        scheduled = new AtomicBoolean(false);
+        batch = new ArrayList<SensorEvent>();
+
+        if (SensorDeliveryPolicy.COALESCE.equals(policy.getType())) {
+            pending = new HashMap<Object, SensorEvent>();
+        }
+    }
+
+    SensorListener getListener() {
+        return listener;
+    }
+
+    SensorDeliveryPolicy getPolicy() {
+        return policy;
+    }
+
+    long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    long getCoalescedEventCount() {
+        return coalescedEvents.get();
+    }
+
+    int getQueuedEventCount() {
+        return queue.size();
+    }
+
+    /**
+     * Check whether this queue has been closed and has delivered all its
+     * events.
+     * 
+     * @return True if the queue has terminated.
+     */
+    boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Wait until this queue has been closed and has delivered all its
+     * events.
+     * 
+     * @throws InterruptedException
+     *             if the current thread is interrupted while waiting.
+     */
+    void awaitTermination()
+        throws InterruptedException {
+        termination.await();
+    }
+
+    public void doOnSensorEvent(SensorEvent event) {
+        if (closed) {
+            forward(event);
+            return;
+        }
+
+        boolean queued = false;
+
+        event.pin();
+
+        if (pending != null) {
+            queued = coalesce(event);
+        } else if (queue.offer(event)) {
+            queued = true;
+        } else if (SensorDeliveryPolicy.BLOCK.equals(policy.getType())) {
+            try {
+                queued = queue.offer(event, policy.getBlockTimeout(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (SensorDeliveryPolicy.DROP_OLDEST.equals(policy.getType())) {
+            while (!(queued = queue.offer(event))) {
+                if (queue.poll() != null) {
+                    droppedEvents.incrementAndGet();
+                }
+            }
+        }
+
+        if (queued) {
+            overflowing = false;
+
+            /*
+             * the queue may have terminated since the closed check: the
+             * event is either removed here or by the terminating drain task
+             */
+            if (terminated) {
+                if (queue.remove(event)) {
+                    forward(pending == null ? event : getLatest(event));
+                }
+                return;
+            }
+
+            schedule();
+            return;
+        }
+
+        droppedEvents.incrementAndGet();
+
+        if (!overflowing) {
+            overflowing = true;
+            logger.warn(name + ": delivery queue full, dropping events");
+        }
+    }
+
+    public void doOnSensorEvents(List<SensorEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            doOnSensorEvent(events.get(i));
+        }
+    }
+
+    private boolean coalesce(SensorEvent event) {
+        Object key = policy.getKey(event);
+
+        if (key == null) {
+            return queue.offer(event);
+        }
+
+        synchronized (pending) {
+            if (pending.containsKey(key)) {
+                pending.put(key, event);
+                coalescedEvents.incrementAndGet();
+                return true;
+            }
+
+            if (queue.offer(event)) {
+                pending.put(key, event);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * coalesce policy: get the latest event having the same key of the
+     * dequeued one, releasing the key
+     */
+    private SensorEvent getLatest(SensorEvent event) {
+        Object key = policy.getKey(event);
+
+        if (key == null) {
+            return event;
+        }
+
+        synchronized (pending) {
+            SensorEvent latest = pending.remove(key);
+            return latest == null ? event : latest;
+        }
+    }
+
+    /**
+     * Stop accepting new events. The events already queued are still
+     * delivered, the following ones are dropped.
+     */
+    void close() {
+        close(null);
+    }
+
+    /**
+     * Stop accepting new events. The events already queued are still
+     * delivered, the following ones are handed over to the successor.
+     * 
+     * @param next
+     *            The listener receiving the following events, null for
+     *            dropping them.
+     */
+    void close(SensorListener next) {
+        successor = next;
+        closed = true;
+        schedule();
+
+        // the termination may have notified the previous successor
+        if (terminated && next instanceof SensorListenerQueue) {
+            ((SensorListenerQueue) next).predecessorTerminated();
+        }
+    }
+
+    private void forward(SensorEvent event) {
+        SensorListener next = successor;
+
+        if (next == null) {
+            droppedEvents.incrementAndGet();
+            return;
+        }
+
+        try {
+            next.doOnSensorEvent(event);
+        } catch (Throwable th) {
+            logger.error(name + ": " + th.getMessage(), th);
+        }
+    }
+
+    /*
+     * invoked by the predecessor once terminated
+     */
+    private void predecessorTerminated() {
+        predecessor = null;
+        schedule();
+    }
+
+    /*
+     * invoked by the drain task holding the scheduled flag, which is never
+     * released afterwards
+     */
+    private void terminate() {
+        terminated = true;
+
+        SensorEvent event;
+        while ((event = queue.poll()) != null) {
+            forward(pending == null ? event : getLatest(event));
+        }
+
+        termination.countDown();
+        logger.debug(name + ": delivery queue terminated");
+
+        SensorListener next = successor;
+        if (next instanceof SensorListenerQueue) {
+            ((SensorListenerQueue) next).predecessorTerminated();
+        }
+    }
+
+    private void schedule() {
+        SensorListenerQueue previous = predecessor;
+
+        if (previous != null && !previous.isTerminated()) {
+            return;
+        }
+
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                SensorDispatcher.getInstance().execute(this, owner.getScope());
+            } catch (RuntimeException ex) {
+                scheduled.set(false);
+                logger.error(name + ": cannot deliver the events: " + ex.getMessage());
+            }
+        }
+    }
+
+    /*
+     * the drain task: never run concurrently with itself, as it is
+     * submitted only by the thread setting the scheduled flag
+     */
+    public void run() {
+        boolean isBatchListener = listener instanceof BatchSensorListener;
+        int delivered = 0;
+
+        while (delivered < BURST) {
+            SensorEvent event = queue.poll();
+
+            if (event == null) {
+                break;
+            }
+
+            batch.add(event);
+            if (isBatchListener) {
+                queue.drainTo(batch, BURST - 1);
+            }
+
+            int size = batch.size();
+
+            if (pending != null) {
+                for (int i = 0; i < size; i++) {
+                    batch.set(i, getLatest(batch.get(i)));
+                }
+            }
+
+            try {
+                if (isBatchListener) {
+                    ((BatchSensorListener) listener).doOnSensorEvents(batch);
+                } else {
+                    listener.doOnSensorEvent(batch.get(0));
+                }
+            } catch (Throwable th) {
+                logger.error(name + ": " + th.getMessage(), th);
+            }
+
+            delivered += size;
+            batch.clear();
+        }
+
+        if (closed && queue.isEmpty()) {
+            terminate();
+            return;
+        }
+
+        scheduled.set(false);
+
+        /*
+         * an event queued, or a close() requested, after the last check may
+         * have found the flag still set
+         */
+        if (!queue.isEmpty() || closed) {
+            schedule();
+        }
+    }
+}
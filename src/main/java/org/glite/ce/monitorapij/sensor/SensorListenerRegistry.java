@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Copy-on-write registry of the <code>SensorListener</code>s of a sensor.
+ * The listeners are compiled into a <code>DispatchTable</code> which is never
+ * modified once published: adding or removing a listener builds a new table,
+ * so the dispatch of the events can walk a consistent snapshot without
+ * locking and without allocating, even while listeners are being added or
+ * removed. Listeners are expected to change rarely compared to the events
+ * fired.
+ * <p>
+ * When a delivery queue size is set, every listener is wrapped by a
+ * <code>SensorListenerQueue</code>, so the table holds the queues and the
+ * dispatch only enqueues the events. The listeners added with their own
+ * <code>SensorDeliveryPolicy</code> are always wrapped. When the queues are
+ * reconfigured, the new wrapper of a listener delivers only after its old
+ * queue has delivered all its events.
+ */
+final class SensorListenerRegistry {
+    private static final SensorListener[] NO_LISTENERS = new SensorListener[0];
+
+    private static final EventFilter[] NO_FILTERS = new EventFilter[0];
+
+    private volatile DispatchTable table = new DispatchTable(NO_LISTENERS, NO_FILTERS);
+
+    private int queueSize = 0;
+
+    private SensorDeliveryPolicy defaultPolicy = SensorDeliveryPolicy.DEFAULT;
+
+    private HashMap<SensorListener, SensorDeliveryPolicy> policies;
+
+    private Sensor owner;
+
+    SensorListenerRegistry(Sensor owner) {
+        this.owner = owner;
+        policies = new HashMap<SensorListener, SensorDeliveryPolicy>(0);
+    }
+
+    /**
+     * Get the current dispatch table.
+     * 
+     * @return The dispatch table.
+     */
+    DispatchTable getDispatchTable() {
+        return table;
+    }
+
+    /**
+     * Get the listeners as registered, that is without their delivery queue.
+     * 
+     * @return A copy of the registered listeners.
+     */
+    SensorListener[] getListeners() {
+        SensorListener[] current = table.listeners;
+        SensorListener[] result = new SensorListener[current.length];
+
+        for (int i = 0; i < current.length; i++) {
+            result[i] = unwrap(current[i]);
+        }
+
+        return result;
+    }
+
+    synchronized void add(SensorListener l) {
+        add(l, null, null);
+    }
+
+    /**
+     * Add a listener.
+     * 
+     * @param l
+     *            The listener.
+     * @param policy
+     *            The delivery policy of the listener, null for the default
+     *            one of the sensor.
+     * @param filter
+     *            The events the listener is interested in, null for all.
+     */
+    synchronized void add(SensorListener l, SensorDeliveryPolicy policy, EventFilter filter) {
+        SensorListener[] current = table.listeners;
+        EventFilter[] currentFilters = table.filters;
+        SensorListener[] result = new SensorListener[current.length + 1];
+        EventFilter[] resultFilters = new EventFilter[current.length + 1];
+
+        if (policy != null) {
+            policies.put(l, policy);
+        }
+
+        System.arraycopy(current, 0, result, 0, current.length);
+        System.arraycopy(currentFilters, 0, resultFilters, 0, current.length);
+        result[current.length] = wrap(l);
+        resultFilters[current.length] = filter == null ? null : new EventFilter(filter);
+        table = new DispatchTable(result, resultFilters);
+    }
+
+    synchronized boolean remove(SensorListener l) {
+        SensorListener[] current = table.listeners;
+        EventFilter[] currentFilters = table.filters;
+
+        for (int i = 0; i < current.length; i++) {
+            if (unwrap(current[i]).equals(l)) {
+                SensorListener[] result = new SensorListener[current.length - 1];
+                EventFilter[] resultFilters = new EventFilter[current.length - 1];
+
+                System.arraycopy(current, 0, result, 0, i);
+                System.arraycopy(current, i + 1, result, i, current.length - i - 1);
+                System.arraycopy(currentFilters, 0, resultFilters, 0, i);
+                System.arraycopy(currentFilters, i + 1, resultFilters, i, current.length - i - 1);
+                table = new DispatchTable(result, resultFilters);
+                policies.remove(l);
+                close(current[i]);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    synchronized void clear() {
+        SensorListener[] current = table.listeners;
+
+        table = new DispatchTable(NO_LISTENERS, NO_FILTERS);
+        policies.clear();
+        for (int i = 0; i < current.length; i++) {
+            close(current[i]);
+        }
+    }
+
+    /**
+     * Set the capacity of the per-listener delivery queues and the policy
+     * applied when they are full, re-wrapping the listeners already
+     * registered. The events still queued for them are delivered before the
+     * ones fired afterwards, which wait in the new queues or, if the delivery
+     * becomes synchronous, delay the firing thread.
+     * 
+     * @param size
+     *            The queue capacity, 0 for delivering the events
+     *            synchronously to the listeners without their own policy.
+     * @param policy
+     *            The default <code>SensorDeliveryPolicy</code>.
+     */
+    synchronized void configure(int size, SensorDeliveryPolicy policy) {
+        size = Math.max(size, 0);
+        if (policy == null) {
+            policy = SensorDeliveryPolicy.DEFAULT;
+        }
+
+        if (size == queueSize && policy == defaultPolicy) {
+            return;
+        }
+
+        queueSize = size;
+        defaultPolicy = policy;
+
+        SensorListener[] current = table.listeners;
+        SensorListener[] result = new SensorListener[current.length];
+
+        for (int i = 0; i < current.length; i++) {
+            result[i] = wrap(unwrap(current[i]), getDrainingQueue(current[i]));
+        }
+        table = new DispatchTable(result, table.filters);
+
+        for (int i = 0; i < current.length; i++) {
+            close(current[i], result[i]);
+        }
+    }
+
+    synchronized int getQueueSize() {
+        return queueSize;
+    }
+
+    synchronized SensorDeliveryPolicy getDefaultPolicy() {
+        return defaultPolicy;
+    }
+
+    /**
+     * Get the number of events dropped because of a full delivery queue.
+     * 
+     * @return The events dropped for the listeners currently registered.
+     */
+    long getDroppedEventCount() {
+        SensorListener[] current = table.listeners;
+        long result = 0;
+
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] instanceof SensorListenerQueue) {
+                result += ((SensorListenerQueue) current[i]).getDroppedEventCount();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the number of events replaced by a later one with the same key.
+     * 
+     * @return The events coalesced for the listeners currently registered.
+     */
+    long getCoalescedEventCount() {
+        SensorListener[] current = table.listeners;
+        long result = 0;
+
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] instanceof SensorListenerQueue) {
+                result += ((SensorListenerQueue) current[i]).getCoalescedEventCount();
+            }
+        }
+
+        return result;
+    }
+
+    private SensorListener wrap(SensorListener l) {
+        return wrap(l, null);
+    }
+
+    /*
+     * previous is the queue of the listener still delivering events, if any
+     */
+    private SensorListener wrap(SensorListener l, SensorListenerQueue previous) {
+        SensorDeliveryPolicy policy = policies.get(l);
+
+        if (policy == null) {
+            if (queueSize == 0) {
+                return previous == null ? l : new HandOff(l, previous);
+            }
+            policy = defaultPolicy;
+        }
+
+        int size = queueSize > 0 ? queueSize : AbstractSensor.DEFAULT_DISPATCH_QUEUE_SIZE;
+
+        return new SensorListenerQueue(l, size, policy, owner, previous);
+    }
+
+    private static SensorListener unwrap(SensorListener l) {
+        if (l instanceof SensorListenerQueue) {
+            return ((SensorListenerQueue) l).getListener();
+        }
+
+        if (l instanceof HandOff) {
+            return ((HandOff) l).listener;
+        }
+
+        return l;
+    }
+
+    /*
+     * the queue which may still be delivering events to a listener
+     */
+    private static SensorListenerQueue getDrainingQueue(SensorListener l) {
+        SensorListenerQueue queue = null;
+
+        if (l instanceof SensorListenerQueue) {
+            queue = (SensorListenerQueue) l;
+        } else if (l instanceof HandOff) {
+            queue = ((HandOff) l).predecessor;
+        }
+
+        return queue == null || queue.isTerminated() ? null : queue;
+    }
+
+    private static void close(SensorListener l) {
+        close(l, null);
+    }
+
+    /*
+     * next receives the events fired through the old table, if any
+     */
+    private static void close(SensorListener l, SensorListener next) {
+        SensorListenerQueue queue = getDrainingQueue(l);
+
+        if (queue != null) {
+            queue.close(next);
+        }
+    }
+
+    /**
+     * Synchronous delivery to a listener whose old queue may still be
+     * delivering events: each event waits for that queue to terminate.
+     */
+    private static final class HandOff
+        implements BatchSensorListener {
+        final SensorListener listener;
+
+        final SensorListenerQueue predecessor;
+
+        HandOff(SensorListener listener, SensorListenerQueue predecessor) {
+            this.listener = listener;
+            this.predecessor = predecessor;
+        }
+
+        public void doOnSensorEvent(SensorEvent event) {
+            awaitPredecessor();
+            listener.doOnSensorEvent(event);
+        }
+
+        public void doOnSensorEvents(List<SensorEvent> events) {
+            awaitPredecessor();
+
+            if (listener instanceof BatchSensorListener) {
+                ((BatchSensorListener) listener).doOnSensorEvents(events);
+            } else {
+                for (int i = 0; i < events.size(); i++) {
+                    listener.doOnSensorEvent(events.get(i));
+                }
+            }
+        }
+
+        private void awaitPredecessor() {
+            if (!predecessor.isTerminated()) {
+                try {
+                    predecessor.awaitTermination();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Immutable routing of the events to the listeners. The event name
+     * selects a <code>Route</code>, listing in registration order the
+     * listeners whose filter accepts that name; the constraints of the
+     * filters on the other fields are checked only for the listeners having
+     * them. The routes are computed when the listeners change.
+     */
+    static final class DispatchTable {
+        final SensorListener[] listeners;
+
+        final EventFilter[] filters;
+
+        /*
+         * the listeners without a name constraint, used for the events
+         * whose name has no specific route
+         */
+        final Route defaultRoute;
+
+        private final HashMap<String, Route> routes;
+
+        DispatchTable(SensorListener[] listeners, EventFilter[] filters) {
+            this.listeners = listeners;
+            this.filters = filters;
+
+            HashMap<String, Route> table = new HashMap<String, Route>(0);
+
+            for (int i = 0; i < filters.length; i++) {
+                if (filters[i] != null && filters[i].getNames() != null) {
+                    Iterator<String> names = filters[i].getNames().iterator();
+                    while (names.hasNext()) {
+                        table.put(names.next(), null);
+                    }
+                }
+            }
+
+            defaultRoute = buildRoute(null);
+
+            Iterator<String> names = new ArrayList<String>(table.keySet()).iterator();
+            while (names.hasNext()) {
+                String name = names.next();
+                table.put(name, buildRoute(name));
+            }
+            routes = table;
+        }
+
+        /**
+         * Get the listeners which may be interested in the events having the
+         * specified name.
+         * 
+         * @param name
+         *            The event name.
+         * @return The route.
+         */
+        Route getRoute(String name) {
+            if (name == null || routes.isEmpty()) {
+                return defaultRoute;
+            }
+
+            Route route = routes.get(name);
+            return route == null ? defaultRoute : route;
+        }
+
+        private Route buildRoute(String name) {
+            ArrayList<SensorListener> targets = new ArrayList<SensorListener>();
+            ArrayList<EventFilter> checks = new ArrayList<EventFilter>();
+
+            for (int i = 0; i < listeners.length; i++) {
+                EventFilter filter = filters[i];
+
+                if (filter == null) {
+                    targets.add(listeners[i]);
+                    checks.add(null);
+                } else if (filter.getNames() == null || (name != null && filter.getNames().contains(name))) {
+                    targets.add(listeners[i]);
+                    checks.add(filter.hasConstraintsIgnoringName() ? filter : null);
+                }
+            }
+
+            return new Route(targets.toArray(new SensorListener[targets.size()]), checks
+                    .toArray(new EventFilter[checks.size()]));
+        }
+    }
+
+    /**
+     * The listeners to be notified of the events with a given name, each
+     * with the residual filter to be checked, if any.
+     */
+    static final class Route {
+        final SensorListener[] targets;
+
+        final EventFilter[] checks;
+
+        Route(SensorListener[] targets, EventFilter[] checks) {
+            this.targets = targets;
+            this.checks = checks;
+        }
+    }
+}
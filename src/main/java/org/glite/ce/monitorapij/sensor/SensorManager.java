@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class keeps track of the <code>AbstractSensor</code>s loaded by the
+ * monitor and controls their life cycle as a whole.
+ */
+public class SensorManager {
+    private final static Logger logger = Logger.getLogger(SensorManager.class.getName());
+
+    private static final int MAX_SHUTDOWN_THREADS = 16;
+
+    public static final int DEFAULT_INIT_THREADS = 8;
+
+    private List<AbstractSensor> sensors;
+
+    public SensorManager() {
+        sensors = new CopyOnWriteArrayList<AbstractSensor>();
+    }
+
+    /**
+     * Add a sensor to this manager. Do nothing if the sensor has already been
+     * added.
+     * 
+     * @param sensor
+     *            The <code>AbstractSensor</code> to add.
+     */
+    public void addSensor(AbstractSensor sensor) {
+        if (sensor != null && !sensors.contains(sensor)) {
+            sensors.add(sensor);
+        }
+    }
+
+    /**
+     * Remove a sensor from this manager. The sensor is not destroyed.
+     * 
+     * @param sensor
+     *            The <code>AbstractSensor</code> to remove.
+     */
+    public void removeSensor(AbstractSensor sensor) {
+        if (sensor != null) {
+            sensors.remove(sensor);
+        }
+    }
+
+    /**
+     * Get all the sensors handled by this manager.
+     * 
+     * @return An array of <code>AbstractSensor</code>.
+     */
+    public AbstractSensor[] getSensors() {
+        return sensors.toArray(new AbstractSensor[0]);
+    }
+
+    /**
+     * Get a snapshot of the execution phases of the sensors handled by this
+     * manager, useful to check that their executions are evenly spread.
+     * 
+     * @return The <code>SensorPhaseReport</code>.
+     */
+    public SensorPhaseReport getPhaseReport() {
+        return new SensorPhaseReport(getSensors());
+    }
+
+    /**
+     * Initialize and start all the sensors handled by this manager, running
+     * up to DEFAULT_INIT_THREADS init() in parallel.
+     * 
+     * @param timeout
+     *            The maximum time to wait for the initialization in
+     *            milliseconds.
+     * @return A map associating the name of each sensor with its init time
+     *         in milliseconds, or -1 if the initialization failed.
+     * @see #initAndStartAll(int, long)
+     */
+    public Map<String, Long> initAndStartAll(long timeout) {
+        return initAndStartAll(DEFAULT_INIT_THREADS, timeout);
+    }
+
+    /**
+     * Initialize and start all the sensors handled by this manager. The
+     * init() methods, which are supposed to be independent of each other,
+     * are invoked in parallel on a pool of the specified size; once all of
+     * them have completed, the sensors successfully initialized are started
+     * in the order they were added, while the others are removed from this
+     * manager. A sensor whose init() does not complete within the timeout is
+     * considered failed and its initialization is interrupted, as is the one
+     * of every sensor still initializing when the calling thread is
+     * interrupted; the sensors already initialized are started in any case.
+     * A sensor whose startSensor() throws is destroyed, removed from this manager and
+     * reported as failed, without affecting the start of the others.
+     * 
+     * @param parallelism
+     *            The maximum number of init() running at the same time.
+     * @param timeout
+     *            The maximum time to wait for the initialization in
+     *            milliseconds.
+     * @return A map associating the name of each sensor with its init time
+     *         in milliseconds, or -1 if the initialization or the start
+     *         failed.
+     */
+    public Map<String, Long> initAndStartAll(int parallelism, long timeout) {
+        AbstractSensor[] allSensors = getSensors();
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+
+        if (allSensors.length == 0) {
+            return result;
+        }
+
+        logger.info("initializing " + allSensors.length + " sensors (parallelism " + parallelism + ")");
+
+        long startTime = System.nanoTime();
+        long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(allSensors.length, parallelism)),
+                new ManagerThreadFactory("SensorInit"));
+
+        List<Future<Long>> futures = new ArrayList<Future<Long>>(allSensors.length);
+        boolean[] initialized = new boolean[allSensors.length];
+        int next = 0;
+
+        try {
+            for (int i = 0; i < allSensors.length; i++) {
+                final AbstractSensor sensor = allSensors[i];
+
+                futures.add(pool.submit(new Callable<Long>() {
+                    public Long call()
+                        throws SensorException {
+                        long initStart = System.nanoTime();
+                        sensor.init();
+                        return Long.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - initStart));
+                    }
+                }));
+            }
+
+            for (; next < allSensors.length; next++) {
+                AbstractSensor sensor = allSensors[next];
+                Future<Long> future = futures.get(next);
+                long initDuration = -1;
+
+                try {
+                    initDuration = future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)
+                            .longValue();
+                    initialized[next] = true;
+                    logger.info("sensor " + sensor.getName() + " init time: " + initDuration + " ms");
+                } catch (ExecutionException ex) {
+                    logger.error("cannot initialize sensor " + sensor.getName() + ": " + ex.getCause(), ex.getCause());
+                } catch (TimeoutException ex) {
+                    future.cancel(true);
+                    logger.error("sensor " + sensor.getName() + " not initialized within " + timeout + " ms");
+                }
+
+                result.put(sensor.getName(), Long.valueOf(initDuration));
+            }
+        } catch (InterruptedException ex) {
+            logger.warn("initialization of the sensors interrupted");
+
+            /*
+             * the sensors whose init() already completed are started anyway,
+             * the interrupt status being restored only afterwards so that
+             * the completed futures can still be read
+             */
+            for (int i = next; i < futures.size(); i++) {
+                AbstractSensor sensor = allSensors[i];
+                Future<Long> future = futures.get(i);
+                long initDuration = -1;
+
+                if (future.isDone() && !future.isCancelled()) {
+                    try {
+                        initDuration = future.get().longValue();
+                        initialized[i] = true;
+                        logger.info("sensor " + sensor.getName() + " init time: " + initDuration + " ms");
+                    } catch (ExecutionException ee) {
+                        logger.error("cannot initialize sensor " + sensor.getName() + ": " + ee.getCause(), ee
+                                .getCause());
+                    } catch (InterruptedException ie) {
+                        logger.error("sensor " + sensor.getName() + " not initialized: interrupted");
+                    }
+                } else {
+                    future.cancel(true);
+                    logger.error("sensor " + sensor.getName() + " not initialized: interrupted");
+                }
+
+                result.put(sensor.getName(), Long.valueOf(initDuration));
+            }
+
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (int i = 0; i < allSensors.length; i++) {
+            AbstractSensor sensor = allSensors[i];
+
+            if (initialized[i]) {
+                try {
+                    sensor.startSensor();
+                    continue;
+                } catch (RuntimeException ex) {
+                    logger.error("cannot start sensor " + sensor.getName() + ": " + ex, ex);
+                    result.put(sensor.getName(), Long.valueOf(-1));
+                }
+
+                try {
+                    sensor.destroySensor();
+                } catch (RuntimeException ex) {
+                    logger.error("cannot destroy sensor " + sensor.getName() + ": " + ex.getMessage(), ex);
+                }
+            }
+
+            sensors.remove(sensor);
+        }
+
+        logger.info("sensors initialized in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+
+        return result;
+    }
+
+    /**
+     * Destroy all the sensors handled by this manager and wait for their
+     * termination. The destroySensor() requests are issued in parallel and
+     * the whole operation is bounded by the specified timeout: the sensors
+     * still running an execution when it expires are interrupted and left
+     * behind. In any case the sensors are removed from this manager.
+     * 
+     * @param timeout
+     *            The maximum time to wait in milliseconds.
+     * @return A map associating the name of each sensor with the time in
+     *         milliseconds it took to stop, or -1 if it did not stop in time.
+     */
+    public Map<String, Long> shutdownAll(long timeout) {
+        AbstractSensor[] allSensors = getSensors();
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+
+        if (allSensors.length == 0) {
+            return result;
+        }
+
+        logger.info("shutting down " + allSensors.length + " sensors (timeout " + timeout + " ms)");
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(allSensors.length, MAX_SHUTDOWN_THREADS),
+                new ManagerThreadFactory("SensorShutdown"));
+
+        try {
+            for (int i = 0; i < allSensors.length; i++) {
+                final AbstractSensor sensor = allSensors[i];
+
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            sensor.destroySensor();
+                        } catch (Throwable th) {
+                            logger.error("cannot destroy sensor " + sensor.getName() + ": " + th.getMessage(), th);
+                        }
+                    }
+                });
+            }
+
+            for (int i = 0; i < allSensors.length; i++) {
+                AbstractSensor sensor = allSensors[i];
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+                if (!sensor.awaitTermination(Math.max(remaining, 0))) {
+                    logger.warn("sensor " + sensor.getName() + " not stopped within " + timeout + " ms");
+                    sensor.interruptExecution();
+                }
+            }
+        } catch (InterruptedException ex) {
+            logger.warn("shutdown of the sensors interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (int i = 0; i < allSensors.length; i++) {
+            AbstractSensor sensor = allSensors[i];
+            long stopDuration = sensor.getStopDuration();
+
+            result.put(sensor.getName(), Long.valueOf(stopDuration));
+            logger.info("sensor " + sensor.getName() + " stop time: " + stopDuration + " ms");
+        }
+
+        sensors.removeAll(Arrays.asList(allSensors));
+
+        return result;
+    }
+
+    private static class ManagerThreadFactory
+        implements ThreadFactory {
+        private String prefix;
+
+        private AtomicInteger counter = new AtomicInteger(0);
+
+        ManagerThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Snapshot of the execution phases of a set of sensors. Sensors are grouped
+ * by their current execution delay (the period) and the phase of each one is
+ * the offset of its last execution inside the period, so an even load shows
+ * up as phases uniformly spread over [0, period). Sensors which have never
+ * been executed are not taken into account.
+ */
+public class SensorPhaseReport {
+    public static final int DEFAULT_BUCKETS = 10;
+
+    private TreeMap<Long, List<Long>> phases;
+
+    /**
+     * Create a new report from the current state of the specified sensors.
+     * 
+     * @param sensors
+     *            The sensors to be analyzed.
+     */
+    public SensorPhaseReport(AbstractSensor[] sensors) {
+        phases = new TreeMap<Long, List<Long>>();
+
+        for (int i = 0; i < sensors.length; i++) {
+            long period = sensors[i].getCurrentExecutionDelay();
+            long lastExecution = sensors[i].getLastExecutionTime();
+
+            if (period <= 0 || lastExecution <= 0 || sensors[i].isDestroyed()) {
+                continue;
+            }
+
+            Long key = Long.valueOf(period);
+            List<Long> list = phases.get(key);
+            if (list == null) {
+                list = new ArrayList<Long>();
+                phases.put(key, list);
+            }
+            list.add(Long.valueOf(lastExecution % period));
+        }
+    }
+
+    /**
+     * Get all the periods found, in ascending order.
+     * 
+     * @return The periods in milliseconds.
+     */
+    public long[] getPeriods() {
+        long[] result = new long[phases.size()];
+        int k = 0;
+
+        for (Iterator<Long> it = phases.keySet().iterator(); it.hasNext();) {
+            result[k++] = it.next().longValue();
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the phases of the sensors having the specified period.
+     * 
+     * @param period
+     *            The period in milliseconds.
+     * @return The sorted phases in milliseconds, an empty array if no sensor
+     *         has such period.
+     */
+    public long[] getPhases(long period) {
+        List<Long> list = phases.get(Long.valueOf(period));
+        if (list == null) {
+            return new long[0];
+        }
+
+        long[] result = new long[list.size()];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = list.get(k).longValue();
+        }
+        Arrays.sort(result);
+
+        return result;
+    }
+
+    /**
+     * Count the sensors of the specified period falling in each of the
+     * equally sized slices the period is divided into.
+     * 
+     * @param period
+     *            The period in milliseconds.
+     * @param buckets
+     *            The number of slices.
+     * @return The number of sensors per slice.
+     */
+    public int[] getHistogram(long period, int buckets) {
+        int[] result = new int[Math.max(buckets, 1)];
+        long[] allPhases = getPhases(period);
+
+        for (int k = 0; k < allPhases.length; k++) {
+            result[(int) (allPhases[k] * result.length / period)]++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the longest interval in milliseconds, inside the specified period,
+     * without any sensor execution starting. For N sensors evenly spread it is
+     * about period/N, for sensors running in lockstep it is close to the
+     * whole period.
+     * 
+     * @param period
+     *            The period in milliseconds.
+     * @return The largest gap between consecutive phases.
+     */
+    public long getMaxGap(long period) {
+        long[] allPhases = getPhases(period);
+        if (allPhases.length == 0) {
+            return period;
+        }
+
+        long maxGap = allPhases[0] + period - allPhases[allPhases.length - 1];
+        for (int k = 1; k < allPhases.length; k++) {
+            maxGap = Math.max(maxGap, allPhases[k] - allPhases[k - 1]);
+        }
+
+        return maxGap;
+    }
+
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+
+        for (Iterator<Map.Entry<Long, List<Long>>> it = phases.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Long, List<Long>> entry = it.next();
+            long period = entry.getKey().longValue();
+
+            buffer.append("period=[").append(period).append(" ms] - sensors=[");
+            buffer.append(entry.getValue().size()).append("] - maxGap=[");
+            buffer.append(getMaxGap(period)).append(" ms] - histogram=");
+            buffer.append(Arrays.toString(getHistogram(period, DEFAULT_BUCKETS))).append("\n");
+        }
+
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004.
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.ce.monitorapij.sensor;
+
+/**
+ * Instances of classes that implement this interface drive the execution of
+ * <code>AbstractSensor</code>s, that is they decide on which thread and when
+ * the <code>executeCycle()</code> method of a sensor is invoked.
+ *
+ * @see AbstractSensor#setSensorScheduler(SensorScheduler)
+ */
+public interface SensorScheduler {
+    /**
+     * Start the periodic execution of the specified sensor.
+     *
+     * @param sensor
+     *            The <code>AbstractSensor</code> to be scheduled.
+     */
+    public void schedule(AbstractSensor sensor);
+
+    /**
+     * Suspend the execution of the specified sensor. The cycle currently
+     * running, if any, is not interrupted.
+     *
+     * @param sensor
+     *            The <code>AbstractSensor</code> to be suspended.
+     */
+    public void suspend(AbstractSensor sensor);
+
+    /**
+     * Resume the execution of a previously suspended sensor.
+     *
+     * @param sensor
+     *            The <code>AbstractSensor</code> to be resumed.
+     */
+    public void resume(AbstractSensor sensor);
+
+    /**
+     * Anticipate the next execution of the specified sensor: it must start as
+     * soon as possible, or right after the current one if the sensor is being
+     * executed.
+     *
+     * @param sensor
+     *            The <code>AbstractSensor</code> to be woken up.
+     */
+    public void wakeup(AbstractSensor sensor);
+
+    /**
+     * Stop the execution of the specified sensor for good.
+     *
+     * @param sensor
+     *            The <code>AbstractSensor</code> to be cancelled.
+     */
+    public void cancel(AbstractSensor sensor);
+
+    /**
+     * Release all the resources held by this scheduler.
+     */
+    public void shutdown();
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+/**
+ * Factory of the threads running the sensor loops. This is the baseline
+ * implementation, which only creates platform threads; the multi-release jar
+ * overrides it for Java 21 and later (<code>META-INF/versions/21</code>) with
+ * an implementation able to create virtual threads.
+ */
+public final class SensorThreads {
+
+    private SensorThreads() {
+    }
+
+    /**
+     * Check if virtual threads are available in the running JVM.
+     * 
+     * @return Always false for this implementation.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return false;
+    }
+
+    /**
+     * Create a new, not yet started, thread.
+     * 
+     * @param task
+     *            The <code>Runnable</code> executed by the thread.
+     * @param name
+     *            The name of the thread.
+     * @param virtual
+     *            Ignored by this implementation.
+     * @return The new platform thread.
+     */
+    public static Thread newThread(Runnable task, String name, boolean virtual) {
+        Thread thread = new Thread(task);
+        thread.setName(name);
+        return thread;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class enforces the executeTimeout of the sensors. When an execution
+ * lasts longer than the timeout, the sensor is notified (it counts the
+ * overrun and interrupts the thread running execute()) and a
+ * <code>MonitorEvent</code> with ID <code>EXECUTION_OVERRUN</code> is sent to
+ * the registered <code>MonitorListener</code>s. If the execution still does
+ * not complete, an <code>EXECUTION_STUCK</code> event is sent after each
+ * further timeout interval: a slow sensor produces a single event, a dead one
+ * keeps producing them. If the sensor sets an executeStuckLimit (none by
+ * default), once that many have been sent an
+ * <code>EXECUTION_ABANDONED</code> event is sent, the sensor is destroyed and
+ * the execution is no longer watched.
+ */
+public class SensorWatchdog {
+    private final static Logger logger = Logger.getLogger(SensorWatchdog.class.getName());
+
+    public static final int EXECUTION_OVERRUN = 1;
+
+    public static final int EXECUTION_STUCK = 2;
+
+    public static final int EXECUTION_ABANDONED = 3;
+
+    private static SensorWatchdog instance = null;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private List<MonitorListener> listeners;
+
+    public SensorWatchdog() {
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SensorWatchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        listeners = new CopyOnWriteArrayList<MonitorListener>();
+    }
+
+    /**
+     * Get the watchdog shared by all sensors.
+     * 
+     * @return The default <code>SensorWatchdog</code>.
+     */
+    public static synchronized SensorWatchdog getInstance() {
+        if (instance == null) {
+            instance = new SensorWatchdog();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Add a <code>MonitorListener</code> interested in the overrun
+     * notifications.
+     * 
+     * @param l
+     *            The <code>MonitorListener</code> to be added.
+     */
+    public void addMonitorListener(MonitorListener l) {
+        if (l != null) {
+            listeners.add(l);
+        }
+    }
+
+    /**
+     * Remove a <code>MonitorListener</code>.
+     * 
+     * @param l
+     *            The <code>MonitorListener</code> to be removed.
+     */
+    public void removeMonitorListener(MonitorListener l) {
+        if (l != null) {
+            listeners.remove(l);
+        }
+    }
+
+    /**
+     * Start watching an execution of the specified sensor. The returned
+     * <code>ScheduledFuture</code> must be cancelled as soon as the execution
+     * completes.
+     * 
+     * @param sensor
+     *            The <code>AbstractSensor</code> being executed.
+     * @param timeout
+     *            The maximum duration of the execution in milliseconds.
+     * @return The handle of the check.
+     */
+    public ScheduledFuture<?> watch(AbstractSensor sensor, long timeout) {
+        Check check = new Check(sensor, timeout);
+        check.future = executor.scheduleAtFixedRate(check, timeout, timeout, TimeUnit.MILLISECONDS);
+        return check.future;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void fireMonitorEvent(MonitorEvent event) {
+        for (MonitorListener listener : listeners) {
+            try {
+                listener.doOnMonitorEvent(event);
+            } catch (Throwable th) {
+                logger.error(th.getMessage(), th);
+            }
+        }
+    }
+
+    private class Check
+        implements Runnable {
+        private AbstractSensor sensor;
+
+        private long timeout;
+
+        private long startTime;
+
+        private boolean overrun = false;
+
+        private int stuckCount = 0;
+
+        private volatile ScheduledFuture<?> future = null;
+
+        Check(AbstractSensor sensor, long timeout) {
+            this.sensor = sensor;
+            this.timeout = timeout;
+            this.startTime = System.currentTimeMillis();
+        }
+
+        public void run() {
+            long now = System.currentTimeMillis();
+            long elapsed = now - startTime;
+            String message = "execute() of sensor " + sensor.getName() + " running for " + elapsed
+                    + " ms (executeTimeout " + timeout + " ms)";
+            int limit = sensor.getExecuteStuckLimit();
+            int eventID = EXECUTION_OVERRUN;
+
+            if (!overrun) {
+                overrun = true;
+                sensor.executionOverrun(new SensorException(SensorException.WARNING, message));
+            } else if (limit > 0 && ++stuckCount > limit) {
+                eventID = EXECUTION_ABANDONED;
+                message += ": abandoned";
+
+                if (future != null) {
+                    future.cancel(false);
+                }
+                sensor.executionStuck(new SensorException(SensorException.ERROR, message));
+            } else {
+                eventID = EXECUTION_STUCK;
+                logger.warn(message);
+            }
+
+            MonitorEvent event = new MonitorEvent(eventID, now);
+            event.setIDStringValue(sensor.getName());
+            event.setMessage(message);
+
+            fireMonitorEvent(event);
+        }
+    }
+}
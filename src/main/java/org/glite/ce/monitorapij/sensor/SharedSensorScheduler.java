@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004.
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.ce.monitorapij.sensor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <code>SensorScheduler</code> which runs all its sensors on a bounded pool
+ * of shared threads. Each sensor cycle is re-armed
+ * <code>executionDelay</code> milliseconds (or the current adaptive delay)
+ * after the previous one has completed (fixed-delay semantics), so a sensor
+ * never runs concurrently with itself. Suspending or destroying a sensor
+ * cancels its pending cycle, resuming it schedules a new one.
+ * <p>
+ * A single timer thread tracks the due cycles and hands them over to the
+ * worker pool through a priority queue honouring the sensor scope: when more
+ * cycles are due than free workers, the HIGH scope sensors go first, then
+ * the MEDIUM and the LOW ones. To prevent starvation each scope is just an
+ * offset added to the time the cycle became due (0, one and two aging times
+ * respectively), so a LOW cycle waiting for more than twice the aging time
+ * overtakes any HIGH cycle arriving later.
+ * <p>
+ * Cancelling a sensor whose cycle is still running (e.g. a sensor abandoned
+ * by the <code>SensorWatchdog</code>) adds a spare worker to the pool until
+ * that cycle returns, so stuck executions cannot exhaust it.
+ */
+public class SharedSensorScheduler
+    implements SensorScheduler {
+    private final static Logger logger = Logger.getLogger(SharedSensorScheduler.class.getName());
+
+    public static final String POOL_SIZE = "org.glite.ce.monitorapij.sensor.poolSize";
+
+    public static final String AGING_TIME = "org.glite.ce.monitorapij.sensor.agingTime";
+
+    public static final long DEFAULT_AGING_TIME = 10000;
+
+    private ScheduledThreadPoolExecutor timer;
+
+    private ThreadPoolExecutor workers;
+
+    private long agingTime;
+
+    private AtomicLong sequence;
+
+    private ConcurrentHashMap<AbstractSensor, SensorTask> tasks;
+
+    private int poolSize;
+
+    private int spareWorkers = 0;
+
+    /**
+     * Create a new <code>SharedSensorScheduler</code> whose pool size is read
+     * from the system property
+     * <code>org.glite.ce.monitorapij.sensor.poolSize</code>, defaulting to
+     * twice the number of available processors (at least 4), and whose aging
+     * time in milliseconds is read from the system property
+     * <code>org.glite.ce.monitorapij.sensor.agingTime</code> (default 10000).
+     */
+    public SharedSensorScheduler() {
+        this(Integer.getInteger(POOL_SIZE, Math.max(4, 2 * Runtime.getRuntime().availableProcessors())).intValue(),
+                Long.getLong(AGING_TIME, DEFAULT_AGING_TIME).longValue());
+    }
+
+    /**
+     * Create a new <code>SharedSensorScheduler</code>.
+     *
+     * @param poolSize
+     *            The maximum number of threads running sensor cycles.
+     */
+    public SharedSensorScheduler(int poolSize) {
+        this(poolSize, DEFAULT_AGING_TIME);
+    }
+
+    /**
+     * Create a new <code>SharedSensorScheduler</code>.
+     *
+     * @param poolSize
+     *            The maximum number of threads running sensor cycles.
+     * @param agingTime
+     *            The time in milliseconds separating two adjacent scopes.
+     */
+    public SharedSensorScheduler(int poolSize, long agingTime) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be greater than zero");
+        }
+
+        this.poolSize = poolSize;
+        this.agingTime = Math.max(agingTime, 0);
+        sequence = new AtomicLong(0);
+        timer = new ScheduledThreadPoolExecutor(1, new SensorThreadFactory("SensorScheduler-timer"));
+        workers = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new SensorThreadFactory("SensorScheduler"));
+        tasks = new ConcurrentHashMap<AbstractSensor, SensorTask>();
+
+        logger.debug("SharedSensorScheduler created with " + poolSize + " threads, aging time " + agingTime
+                + " ms");
+    }
+
+    public void schedule(AbstractSensor sensor) {
+        SensorTask task = new SensorTask(sensor);
+        SensorTask previous = tasks.putIfAbsent(sensor, task);
+
+        if (previous != null) {
+            logger.warn("sensor " + sensor.getName() + " already scheduled");
+            return;
+        }
+
+        /*
+         * a sensor suspended before being started waits for resume()
+         */
+        if (!sensor.isSuspended()) {
+            task.start(sensor.getInitialDelay());
+        }
+    }
+
+    public void suspend(AbstractSensor sensor) {
+        SensorTask task = tasks.get(sensor);
+        if (task != null) {
+            task.stop();
+        }
+    }
+
+    public void resume(AbstractSensor sensor) {
+        SensorTask task = tasks.get(sensor);
+        if (task != null) {
+            task.start(0);
+        }
+    }
+
+    public void wakeup(AbstractSensor sensor) {
+        SensorTask task = tasks.get(sensor);
+        if (task != null) {
+            task.wakeup();
+        }
+    }
+
+    public void cancel(AbstractSensor sensor) {
+        SensorTask task = tasks.remove(sensor);
+        if (task != null) {
+            task.stop();
+            task.release();
+            timer.purge();
+        }
+    }
+
+    public void shutdown() {
+        tasks.clear();
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Get the number of sensors currently handled by this scheduler.
+     *
+     * @return The number of scheduled sensors.
+     */
+    public int getSensorCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Get the number of due cycles waiting for a free worker.
+     *
+     * @return The number of queued cycles.
+     */
+    public int getQueuedCount() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Get the number of workers temporarily added to the pool in place of the
+     * ones still running the cycle of a cancelled sensor.
+     *
+     * @return The number of spare workers.
+     */
+    public synchronized int getSpareWorkerCount() {
+        return spareWorkers;
+    }
+
+    /*
+     * the core size must never exceed the maximum one
+     */
+    private synchronized void resizePool(int delta) {
+        spareWorkers += delta;
+
+        if (workers.isShutdown()) {
+            return;
+        }
+
+        if (delta > 0) {
+            workers.setMaximumPoolSize(poolSize + spareWorkers);
+            workers.setCorePoolSize(poolSize + spareWorkers);
+        } else {
+            workers.setCorePoolSize(poolSize + spareWorkers);
+            workers.setMaximumPoolSize(poolSize + spareWorkers);
+        }
+    }
+
+    /*
+     * also used by the SensorDispatcher for ordering the event delivery
+     */
+    static long getScopeOffset(String scope, long agingTime) {
+        if (Sensor.LOW.equalsIgnoreCase(scope)) {
+            return 2 * agingTime;
+        }
+
+        if (Sensor.MEDIUM.equalsIgnoreCase(scope)) {
+            return agingTime;
+        }
+
+        return 0;
+    }
+
+    private class SensorTask
+        implements Runnable {
+        private AbstractSensor sensor;
+
+        private ScheduledFuture<?> future = null;
+
+        private boolean active = false;
+
+        private boolean queued = false;
+
+        private boolean running = false;
+
+        private boolean wakeupPending = false;
+
+        private boolean released = false;
+
+        SensorTask(AbstractSensor sensor) {
+            this.sensor = sensor;
+        }
+
+        synchronized void start(long delay) {
+            active = true;
+
+            if (future == null && !queued && !running) {
+                future = timer.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void wakeup() {
+            if (!active || queued) {
+                return;
+            }
+
+            if (running) {
+                wakeupPending = true;
+                return;
+            }
+
+            if (future != null) {
+                future.cancel(false);
+            }
+            future = timer.schedule(this, 0, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void stop() {
+            active = false;
+
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+        }
+
+        /*
+         * invoked on cancellation: a worker still running the cycle is no
+         * longer counted in the pool
+         */
+        synchronized void release() {
+            if (running && !released) {
+                released = true;
+                resizePool(1);
+            }
+        }
+
+        /*
+         * invoked by the timer when the cycle is due
+         */
+        public void run() {
+            synchronized (this) {
+                future = null;
+                if (!active) {
+                    return;
+                }
+                queued = true;
+            }
+
+            long deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(getScopeOffset(sensor.getScope(), agingTime));
+
+            try {
+                workers.execute(new Cycle(this, deadline, sequence.incrementAndGet()));
+            } catch (RuntimeException ex) {
+                synchronized (this) {
+                    queued = false;
+                }
+                logger.warn("sensor " + sensor.getName() + ": cycle rejected: " + ex.getMessage());
+            }
+        }
+
+        /*
+         * invoked by a worker
+         */
+        void executeCycle() {
+            synchronized (this) {
+                queued = false;
+                if (!active) {
+                    return;
+                }
+                running = true;
+            }
+
+            try {
+                sensor.executeCycle();
+            } catch (Throwable th) {
+                logger.error("sensor " + sensor.getName() + ": " + th.getMessage(), th);
+            } finally {
+                synchronized (this) {
+                    running = false;
+
+                    if (released) {
+                        released = false;
+                        resizePool(-1);
+                    }
+
+                    if (active && !sensor.isDestroyed() && !timer.isShutdown()) {
+                        long delay = wakeupPending ? 0 : sensor.getCurrentExecutionDelay();
+                        future = timer.schedule(this, delay, TimeUnit.MILLISECONDS);
+                    }
+                    wakeupPending = false;
+                }
+            }
+        }
+    }
+
+    private static class Cycle
+        implements Runnable, Comparable<Cycle> {
+        private SensorTask task;
+
+        private long deadline;
+
+        private long sequenceNumber;
+
+        Cycle(SensorTask task, long deadline, long sequenceNumber) {
+            this.task = task;
+            this.deadline = deadline;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        public void run() {
+            task.executeCycle();
+        }
+
+        public int compareTo(Cycle other) {
+            long diff = deadline - other.deadline;
+
+            if (diff == 0) {
+                diff = sequenceNumber - other.sequenceNumber;
+            }
+
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+
+    private static class SensorThreadFactory
+        implements ThreadFactory {
+        private String prefix;
+
+        private AtomicInteger counter = new AtomicInteger(0);
+
+        SensorThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
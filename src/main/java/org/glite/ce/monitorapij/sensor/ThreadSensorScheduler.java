@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004.
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.ce.monitorapij.sensor;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Compatibility <code>SensorScheduler</code> which runs each sensor on a
+ * dedicated thread executing the <code>AbstractSensor.run()</code> loop. The
+ * loop itself takes care of the suspend, resume, wakeup and destroy requests,
+ * so this scheduler has nothing to do but starting the thread. It is selected
+ * by setting the sensor property <code>executionMode</code> to
+ * <code>thread</code>, or to <code>virtual</code> for running the loop on a
+ * virtual thread: this requires Java 21 or later, on older JVMs a platform
+ * thread is used instead.
+ */
+public class ThreadSensorScheduler
+    implements SensorScheduler {
+    private final static Logger logger = Logger.getLogger(ThreadSensorScheduler.class.getName());
+
+    public static final ThreadSensorScheduler INSTANCE = new ThreadSensorScheduler(false);
+
+    public static final ThreadSensorScheduler VIRTUAL_INSTANCE = new ThreadSensorScheduler(true);
+
+    private boolean virtualRequested;
+
+    private boolean virtual;
+
+    /**
+     * Create a new <code>ThreadSensorScheduler</code>.
+     * 
+     * @param virtual
+     *            If true the sensor loops are run on virtual threads, when
+     *            supported by the JVM.
+     */
+    public ThreadSensorScheduler(boolean virtual) {
+        this.virtualRequested = virtual;
+        this.virtual = virtual && SensorThreads.isVirtualThreadSupported();
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public void schedule(AbstractSensor sensor) {
+        if (virtualRequested && !virtual) {
+            logger.warn("virtual threads not supported by this JVM, sensor " + sensor.getName()
+                    + " runs on a platform thread");
+        }
+
+        SensorThreads.newThread(sensor, sensor.getName(), virtual).start();
+    }
+
+    public void suspend(AbstractSensor sensor) {
+    }
+
+    public void resume(AbstractSensor sensor) {
+    }
+
+    public void wakeup(AbstractSensor sensor) {
+    }
+
+    public void cancel(AbstractSensor sensor) {
+    }
+
+    public void shutdown() {
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.apache.log4j.Logger;
+import org.glite.ce.monitorapij.resource.types.Property;
+
+/**
+ * Base abstract class for the sensors whose data sources are files or
+ * directories, like log files or accounting directories. Instead of polling
+ * them every executionDelay, the sensor is executed as soon as the watched
+ * paths change and then stay unchanged for the debounce time.
+ * <p>
+ * The paths are specified with addWatchedPath() or with the
+ * <code>Property</code> watchedPaths (a comma separated list); the debounce
+ * time, in milliseconds, with the <code>Property</code> debounce (default
+ * 500). The executionDelay is still honoured, as a safety net against lost
+ * notifications, but for this kind of sensor it defaults to one hour.
+ * <p>
+ * On Java 21 and later the changes are notified by the operating system. On
+ * older JVMs the paths are polled every pollInterval milliseconds (the
+ * <code>Property</code> pollInterval, default 1000): a change is then noticed
+ * up to one poll interval late, and each poll stats every watched file and
+ * every entry of the watched directories, so large directories call for a
+ * longer interval.
+ */
+public abstract class WatchingSensor
+    extends AbstractSensor {
+    private final static Logger logger = Logger.getLogger(WatchingSensor.class.getName());
+
+    public static final long DEFAULT_DEBOUNCE = 500;
+
+    private ArrayList<File> watchedPaths;
+
+    private long debounce = DEFAULT_DEBOUNCE;
+
+    private long pollInterval = FileChangeWatcher.DEFAULT_POLL_INTERVAL;
+
+    private FileChangeWatcher watcher = null;
+
+    public WatchingSensor() {
+        this("CE Sensor", "Sensor");
+    }
+
+    /**
+     * Create a new <code>WatchingSensor</code> object.
+     * 
+     * @param name
+     *            The name of <code>WatchingSensor</code>
+     * @param type
+     *            The type of <code>WatchingSensor</code>
+     */
+    public WatchingSensor(String name, String type) {
+        super(name, type);
+
+        watchedPaths = new ArrayList<File>(0);
+    }
+
+    /**
+     * Add a file or a directory to the watched paths. It must be invoked
+     * before startSensor().
+     * 
+     * @param path
+     *            The path to be watched.
+     */
+    public void addWatchedPath(File path) {
+        if (path != null && !watchedPaths.contains(path)) {
+            watchedPaths.add(path);
+        }
+    }
+
+    /**
+     * Get all the watched paths.
+     * 
+     * @return An array of <code>File</code>.
+     */
+    public File[] getWatchedPaths() {
+        return watchedPaths.toArray(new File[watchedPaths.size()]);
+    }
+
+    public long getDebounce() {
+        return debounce;
+    }
+
+    public void setDebounce(long debounce) {
+        this.debounce = debounce;
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    protected long getDefaultExecutionDelay() {
+        return 3600000;
+    }
+
+    /**
+     * Start watching the paths, then start the sensor as specified by
+     * <code>AbstractSensor</code>.
+     * 
+     * @see org.glite.ce.monitorapij.sensor.AbstractSensor#startSensor()
+     */
+    public void startSensor() {
+        Property property = getProperty("watchedPaths");
+
+        if (property != null && property.getValue() != null) {
+            String[] paths = property.getValue().split(",");
+
+            for (int i = 0; i < paths.length; i++) {
+                if (paths[i].trim().length() > 0) {
+                    addWatchedPath(new File(paths[i].trim()));
+                }
+            }
+        }
+
+        property = getProperty("debounce");
+
+        if (property != null && property.getValue() != null) {
+            debounce = Long.parseLong(property.getValue());
+        }
+
+        property = getProperty("pollInterval");
+
+        if (property != null && property.getValue() != null) {
+            pollInterval = Long.parseLong(property.getValue());
+        }
+
+        if (watchedPaths.size() == 0) {
+            logger.warn("sensor " + getName() + ": no watched paths defined");
+        } else {
+            watcher = new FileChangeWatcher(getName(), getWatchedPaths(), debounce, new FileChangeListener() {
+                public void doOnFileChange() {
+                    logger.debug("sensor " + getName() + ": watched paths changed");
+                    wakeup();
+                }
+            });
+            watcher.setPollInterval(pollInterval);
+
+            try {
+                watcher.start();
+            } catch (IOException ex) {
+                logger.error("sensor " + getName() + ": cannot watch " + watchedPaths + ", executions driven by "
+                        + "executionDelay only: " + ex.getMessage());
+                watcher = null;
+            }
+        }
+
+        super.startSensor();
+    }
+
+    /**
+     * Stop watching the paths and destroy the sensor.
+     * 
+     * @see org.glite.ce.monitorapij.sensor.AbstractSensor#destroySensor()
+     */
+    public void destroySensor() {
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
+        }
+
+        super.destroySensor();
+    }
+}
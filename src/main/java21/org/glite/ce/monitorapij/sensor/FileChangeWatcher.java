@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2004. 
+ * See http://www.eu-egee.org/partners/ for details on the copyright
+ * holders.  
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0 
+ *
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+ 
+package org.glite.ce.monitorapij.sensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Watches a set of files and directories and notifies a
+ * <code>FileChangeListener</code> once they have stopped changing for the
+ * debounce time. A directory changes when any of its direct entries is
+ * added, removed or modified. Java 21 version packaged in
+ * <code>META-INF/versions/21</code> of the multi-release jar: it relies on
+ * <code>java.nio.file.WatchService</code> and waits for the notifications on
+ * a virtual thread, so an idle watcher costs nothing.
+ */
+public class FileChangeWatcher {
+    private final static Logger logger = Logger.getLogger(FileChangeWatcher.class.getName());
+
+    public static final long DEFAULT_POLL_INTERVAL = 1000;
+
+    private String name;
+
+    private File[] paths;
+
+    private long debounce;
+
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+    private FileChangeListener listener;
+
+    private WatchService watchService = null;
+
+    /*
+     * watched directory -> names of the entries of interest, null meaning
+     * every entry; replaced on stop(), while the loop of each start() keeps
+     * reading its own
+     */
+    private Map<Path, Set<Path>> filters = new HashMap<Path, Set<Path>>();
+
+    /**
+     * Create a new <code>FileChangeWatcher</code>.
+     * 
+     * @param name
+     *            The name of the watcher, used for logging.
+     * @param paths
+     *            The files and directories to be watched.
+     * @param debounce
+     *            The time in milliseconds the paths must stay unchanged
+     *            before the listener is notified.
+     * @param listener
+     *            The <code>FileChangeListener</code> to be notified.
+     */
+    public FileChangeWatcher(String name, File[] paths, long debounce, FileChangeListener listener) {
+        this.name = name;
+        this.paths = paths;
+        this.debounce = debounce;
+        this.listener = listener;
+    }
+
+    /**
+     * Set the interval between two checks of the paths. Kept for
+     * compatibility with the baseline implementation: the notifications of
+     * the <code>WatchService</code> need no polling, so it is ignored.
+     * 
+     * @param pollInterval
+     *            The poll interval in milliseconds.
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = Math.max(pollInterval, 1);
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Start watching the paths.
+     * 
+     * @throws IOException
+     *             if the paths cannot be watched.
+     */
+    public synchronized void start()
+        throws IOException {
+        if (watchService != null) {
+            return;
+        }
+
+        WatchService service = FileSystems.getDefault().newWatchService();
+
+        try {
+            for (File file : paths) {
+                Path path = file.toPath().toAbsolutePath();
+                Path dir = file.isDirectory() ? path : path.getParent();
+
+                if (!filters.containsKey(dir)) {
+                    dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    filters.put(dir, new HashSet<Path>());
+                }
+
+                Set<Path> names = filters.get(dir);
+                if (file.isDirectory()) {
+                    filters.put(dir, null);
+                } else if (names != null) {
+                    names.add(path.getFileName());
+                }
+            }
+        } catch (IOException ex) {
+            service.close();
+            filters.clear();
+            throw ex;
+        }
+
+        Map<Path, Set<Path>> watched = filters;
+
+        watchService = service;
+        Thread.ofVirtual().name("FileChangeWatcher-" + name).start(() -> loop(service, watched));
+
+        logger.debug("watcher " + name + " started on " + Arrays.asList(paths));
+    }
+
+    /**
+     * Stop watching the paths.
+     */
+    public synchronized void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                logger.warn("watcher " + name + ": " + ex.getMessage());
+            }
+            watchService = null;
+            filters = new HashMap<Path, Set<Path>>();
+        }
+    }
+
+    private void loop(WatchService service, Map<Path, Set<Path>> watched) {
+        boolean isChangePending = false;
+        long lastChangeTime = 0;
+
+        try {
+            while (true) {
+                WatchKey key;
+
+                if (isChangePending) {
+                    long remaining = lastChangeTime + debounce - System.currentTimeMillis();
+                    key = service.poll(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+                } else {
+                    key = service.take();
+                }
+
+                if (key != null) {
+                    if (isRelevant(key, watched)) {
+                        isChangePending = true;
+                        lastChangeTime = System.currentTimeMillis();
+                    }
+                    key.reset();
+                }
+
+                if (isChangePending && System.currentTimeMillis() - lastChangeTime >= debounce) {
+                    isChangePending = false;
+
+                    try {
+                        listener.doOnFileChange();
+                    } catch (Throwable th) {
+                        logger.error("watcher " + name + ": " + th.getMessage(), th);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException ex) {
+            logger.debug("watcher " + name + " stopped");
+        } catch (InterruptedException ex) {
+            logger.debug("watcher " + name + " interrupted");
+        }
+    }
+
+    private boolean isRelevant(WatchKey key, Map<Path, Set<Path>> watched) {
+        Set<Path> names = watched.get((Path) key.watchable());
+        boolean result = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || names == null || names.contains(event.context())) {
+                result = true;
+            }
+        }
+
+        return result;
+    }
+}